@@ -41,7 +41,8 @@ class MainActivity : AppCompatActivity() {
 
     override fun attachBaseContext(newBase: Context?) {
         super.attachBaseContext(newBase?.let {
-            RainbowContextWrapper.wrap(it, object : RuntimeAttributeColorResolver(R.attr::class.java) {
+            // the retain key lets the resolver of a recreated Activity reuse the colors resolved before
+            RainbowContextWrapper.wrap(it, object : RuntimeAttributeColorResolver(R.attr::class.java, "main palette") {
                 override fun getColorStateListByAttrName(context: Context, attributeName: String?): ColorStateList {
                     return ColorStateList.valueOf(Color.MAGENTA)
                 }
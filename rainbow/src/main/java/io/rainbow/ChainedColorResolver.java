@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Asks its resolvers in order and returns the first color found. Used when a context that is already wrapped by
+ * {@link RainbowContextWrapper} is wrapped again with another resolver.
+ * <p>
+ * Lookups go through the chained resolvers so that colors retained by any of them are used, and invalidating any of them is enough.
+ * </p>
+ */
+final class ChainedColorResolver
+        extends RuntimeAttributeColorResolver {
+
+    private final RuntimeAttributeColorResolver[] mResolvers;
+
+    ChainedColorResolver(@NonNull RuntimeAttributeColorResolver... resolvers) {
+        super();
+        mResolvers = resolvers;
+    }
+
+    @Nullable
+    @Override
+    public ColorStateList getColorStateListByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        for (RuntimeAttributeColorResolver resolver : mResolvers) {
+            ColorStateList colorStateList = resolver.getColorStateListByAttrName(context, attributeName);
+            if (colorStateList != null) {
+                return colorStateList;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Integer getColorByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        for (RuntimeAttributeColorResolver resolver : mResolvers) {
+            Integer color = resolver.getColorByAttrName(context, attributeName);
+            if (color != null) {
+                return color;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void invalidate() {
+        for (RuntimeAttributeColorResolver resolver : mResolvers) {
+            resolver.invalidate();
+        }
+    }
+
+    @Override
+    public void invalidate(@NonNull String attributeName) {
+        for (RuntimeAttributeColorResolver resolver : mResolvers) {
+            resolver.invalidate(attributeName);
+        }
+    }
+
+    @Nullable
+    @Override
+    ColorStateList getColorStateListByAttrId(@NonNull ColorScope scope, int colorAttrValue) {
+        for (RuntimeAttributeColorResolver resolver : mResolvers) {
+            ColorStateList colorStateList = resolver.getColorStateListByAttrId(scope, colorAttrValue);
+            if (colorStateList != null) {
+                return colorStateList;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    long getColorByAttrId(@NonNull ColorScope scope, int colorAttrValue) {
+        for (RuntimeAttributeColorResolver resolver : mResolvers) {
+            long color = resolver.getColorByAttrId(scope, colorAttrValue);
+            if (color != NO_COLOR) {
+                return color;
+            }
+        }
+        return NO_COLOR;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.res.ColorStateList;
+import android.graphics.PorterDuff;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.annotation.AttrRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.graphics.drawable.DrawableCompat;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.widget.CompoundButtonCompat;
+import android.support.v4.widget.ImageViewCompat;
+import android.support.v7.widget.Toolbar;
+import android.view.View;
+import android.widget.CompoundButton;
+import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+/**
+ * Applies a color resolved by {@link RuntimeAttributeColorResolver} to a single view attribute.
+ * When the resolver has no value the color attribute is resolved from the theme instead, see {@link ThemeColorCache}.
+ * Colors are passed around as unsigned ints so that nothing is boxed on the way.
+ * Shared by inflation and by re-theming of existing views so that both behave the same.
+ */
+final class ColorAttributeApplier {
+
+    private static final long NO_COLOR = RuntimeAttributeColorResolver.NO_COLOR;
+
+    private ColorAttributeApplier() {
+    }
+
+    /**
+     * @return true if <code>attribute</code> is one of the attributes listed in {@link RainbowContextWrapper}
+     */
+    static boolean isSupported(@AttrRes int attribute) {
+        return attribute == android.R.attr.buttonTint
+                || attribute == android.support.v7.appcompat.R.attr.buttonTint
+                || attribute == android.R.attr.drawableTint
+                || attribute == android.R.attr.textColor
+                || attribute == android.R.attr.background
+                || attribute == android.R.attr.indeterminateTint
+                || attribute == android.R.attr.backgroundTint
+                || attribute == android.support.v7.appcompat.R.attr.backgroundTint
+                || attribute == android.R.attr.textColorHighlight
+                || attribute == android.R.attr.tint
+                || attribute == android.support.v7.appcompat.R.attr.titleTextColor;
+    }
+
+    /**
+     * @param attribute      the view attribute, i.e. {@link android.R.attr#textColor}
+     * @param colorAttribute the color attribute referenced by <code>attribute</code>, i.e. R.attr.colorPrimary
+     */
+    static void apply(@NonNull ColorScope scope, @NonNull RuntimeAttributeColorResolver resolver, @NonNull View view,
+                      @AttrRes int attribute, @AttrRes int colorAttribute) {
+        //region buttonTint
+        if (view instanceof CompoundButton && (attribute == android.R.attr.buttonTint || attribute == android.support.v7.appcompat.R.attr.buttonTint)) {
+            CompoundButton compoundButton = (CompoundButton) view;
+            ColorStateList checkboxColor = getColorStateList(scope, resolver, colorAttribute);
+            if (checkboxColor != null) {
+                CompoundButtonCompat.setButtonTintList(compoundButton, checkboxColor);
+            }
+
+        }
+        //endregion
+        //region drawableTint
+        else if (attribute == android.R.attr.drawableTint) {
+            if (view instanceof TextView) {
+                TextView textView = (TextView) view;
+                //The theme fallback matters most here, there is no AppCompat version for drawableTint
+                //in which case of API < 23 the system will ignore the attribute but we WANT the effect before API 23 as well
+                long color = getColor(scope, resolver, colorAttribute);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    if (color != NO_COLOR) {
+                        textView.setCompoundDrawableTintList(ColorStateList.valueOf((int) color));
+                    }
+                } else {
+                    Drawable[] drawables = textView.getCompoundDrawablesRelative();
+                    for (Drawable drawable : drawables) {
+                        if (drawable != null && color != NO_COLOR) {
+                            DrawableCompat.setTint(drawable, (int) color);
+                        }
+                    }
+                }
+            }
+        }
+        //endregion
+        //region textColor
+        else if (attribute == android.R.attr.textColor) {
+            if (view instanceof TextView) {
+                TextView textView = (TextView) view;
+                long color = getColor(scope, resolver, colorAttribute);
+                if (color != NO_COLOR) {
+                    textView.setTextColor((int) color);
+                }
+            }
+        }
+        //endregion
+        //region background
+        else if (attribute == android.R.attr.background) {
+            long color = getColor(scope, resolver, colorAttribute);
+            if (color != NO_COLOR) {
+                view.setBackgroundColor((int) color);
+            }
+        }
+        //endregion
+        //region indeterminateTint
+        else if (attribute == android.R.attr.indeterminateTint) {
+            if (view instanceof ProgressBar) {
+                long color = getColor(scope, resolver, colorAttribute);
+                if (color != NO_COLOR) {
+                    ProgressBar progressBar = (ProgressBar) view;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        progressBar.setIndeterminateTintList(ColorStateList.valueOf((int) color));
+                    } else {
+                        Drawable indeterminateDrawable = progressBar.getIndeterminateDrawable();
+                        DrawableCompat.setTint(indeterminateDrawable, (int) color);
+                    }
+                }
+            }
+        }
+        //endregion
+        //region backgroundTint
+        else if (attribute == android.R.attr.backgroundTint) {
+            long color = getColor(scope, resolver, colorAttribute);
+            if (color != NO_COLOR) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    view.setBackgroundTintList(ColorStateList.valueOf((int) color));
+                } else if (view.getBackground() != null) {
+                    view.getBackground()
+                            .setColorFilter((int) color, PorterDuff.Mode.SRC_IN);
+                }
+            }
+        }
+        //endregion
+        //region backgroundTint
+        else if (attribute == android.support.v7.appcompat.R.attr.backgroundTint) {
+            long color = getColor(scope, resolver, colorAttribute);
+            if (color != NO_COLOR) {
+                ViewCompat.setBackgroundTintList(view, ColorStateList.valueOf((int) color));
+            }
+        }
+        //endregion
+        //region textColorHighlight
+        else if (attribute == android.R.attr.textColorHighlight) {
+            long color = getColor(scope, resolver, colorAttribute);
+            if (view instanceof TextView && color != NO_COLOR) {
+                TextView textView = (TextView) view;
+                textView.setHighlightColor((int) color);
+            }
+        }
+        //endregion
+        //region tint
+        else if (attribute == android.R.attr.tint) {
+            long color = getColor(scope, resolver, colorAttribute);
+            if (view instanceof ImageView && color != NO_COLOR) {
+                ImageView imageView = (ImageView) view;
+                ImageViewCompat.setImageTintList(imageView, ColorStateList.valueOf((int) color));
+            }
+        }
+        //endregion
+        //region titleTextColor
+        else if (attribute == android.support.v7.appcompat.R.attr.titleTextColor) {
+            long color = getColor(scope, resolver, colorAttribute);
+            if (view instanceof Toolbar && color != NO_COLOR) {
+                Toolbar toolbar = (Toolbar) view;
+                toolbar.setTitleTextColor((int) color);
+            }
+        }
+        //endregion
+    }
+
+    /**
+     * @return the color as an unsigned int or {@link RuntimeAttributeColorResolver#NO_COLOR}
+     */
+    private static long getColor(@NonNull ColorScope scope, @NonNull RuntimeAttributeColorResolver resolver,
+                                 @AttrRes int colorAttribute) {
+        long color = resolver.getColorByAttrId(scope, colorAttribute);
+        return color != NO_COLOR ? color : scope.getThemeColor(colorAttribute);
+    }
+
+    @Nullable
+    private static ColorStateList getColorStateList(@NonNull ColorScope scope, @NonNull RuntimeAttributeColorResolver resolver,
+                                                    @AttrRes int colorAttribute) {
+        ColorStateList colorStateList = resolver.getColorStateListByAttrId(scope, colorAttribute);
+        if (colorStateList != null) {
+            return colorStateList;
+        }
+        long color = scope.getThemeColor(colorAttribute);
+        return color != NO_COLOR ? ColorStateList.valueOf((int) color) : null;
+    }
+}
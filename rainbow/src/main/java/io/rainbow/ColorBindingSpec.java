@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.support.annotation.IdRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+import android.view.View;
+
+/**
+ * Describes which {@link ViewColorBindings} apply to which views of a subtree, see
+ * {@link RainbowContextWrapper#applyColors(View, ColorBindingSpec)}.
+ */
+public final class ColorBindingSpec {
+
+    @Nullable
+    private final ViewColorBindings mAllViewsBindings;
+
+    /**
+     * Already merged with {@link #mAllViewsBindings} so that looking up a view does not allocate
+     */
+    private final SparseArray<ViewColorBindings> mViewIdBindings;
+
+    private ColorBindingSpec(@Nullable ViewColorBindings allViewsBindings, @NonNull SparseArray<ViewColorBindings> viewIdBindings) {
+        mAllViewsBindings = allViewsBindings;
+        mViewIdBindings = viewIdBindings;
+    }
+
+    /**
+     * @return the bindings of <code>view</code> or null if the spec has none for it
+     */
+    @Nullable
+    ViewColorBindings getBindings(@NonNull View view) {
+        int id = view.getId();
+        ViewColorBindings viewIdBindings = id != View.NO_ID ? mViewIdBindings.get(id) : null;
+        return viewIdBindings != null ? viewIdBindings : mAllViewsBindings;
+    }
+
+    public static final class Builder {
+
+        @Nullable
+        private ViewColorBindings mAllViewsBindings;
+
+        private final SparseArray<ViewColorBindings> mViewIdBindings = new SparseArray<>();
+
+        /**
+         * Bind the views with <code>viewId</code>, takes precedence over {@link #bindAll(ViewColorBindings)}
+         */
+        @NonNull
+        public Builder bind(@IdRes int viewId, @NonNull ViewColorBindings bindings) {
+            ViewColorBindings existing = mViewIdBindings.get(viewId);
+            mViewIdBindings.put(viewId, existing != null ? existing.merge(bindings) : bindings);
+            return this;
+        }
+
+        /**
+         * Bind every view of the subtree. An attribute is only applied to the views that have it, i.e.
+         * {@link android.R.attr#textColor} to TextViews, but {@link android.R.attr#background} applies to any view.
+         */
+        @NonNull
+        public Builder bindAll(@NonNull ViewColorBindings bindings) {
+            mAllViewsBindings = mAllViewsBindings != null ? mAllViewsBindings.merge(bindings) : bindings;
+            return this;
+        }
+
+        @NonNull
+        public ColorBindingSpec build() {
+            SparseArray<ViewColorBindings> viewIdBindings = new SparseArray<>(mViewIdBindings.size());
+            for (int i = 0; i < mViewIdBindings.size(); i++) {
+                ViewColorBindings bindings = mViewIdBindings.valueAt(i);
+                viewIdBindings.put(mViewIdBindings.keyAt(i), mAllViewsBindings != null ? mAllViewsBindings.merge(bindings) : bindings);
+            }
+            return new ColorBindingSpec(mAllViewsBindings, viewIdBindings);
+        }
+    }
+}
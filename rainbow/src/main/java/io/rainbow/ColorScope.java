@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.support.annotation.AttrRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The context colors are resolved in for one inflation or one traversal of existing views.
+ * <p>
+ * Keeps the last {@link ConfigurationKey} and the theme colors of the last {@link Resources.Theme}, checked once when
+ * the theme changes, so that the lookups of a whole hierarchy share them instead of inspecting the configuration per
+ * attribute. Short lived and
+ * not thread safe, create one per inflation or traversal.
+ * </p>
+ */
+final class ColorScope {
+
+    @NonNull
+    private Context mContext;
+
+    @Nullable
+    private Configuration mConfiguration;
+
+    @Nullable
+    private ConfigurationKey mConfigurationKey;
+
+    @Nullable
+    private Resources.Theme mTheme;
+
+    @Nullable
+    private ThemeColorCache.ThemeColors mThemeColors;
+
+    ColorScope(@NonNull Context context) {
+        mContext = context;
+    }
+
+    @NonNull
+    Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * Resolve the following lookups in <code>context</code>, i.e. the context of the next view
+     */
+    void setContext(@NonNull Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @param mask a combination of the {@link android.content.pm.ActivityInfo} <code>CONFIG_*</code> flags
+     */
+    @NonNull
+    ConfigurationKey getConfigurationKey(int mask) {
+        //contexts of one hierarchy nearly always share the Resources and therefore the Configuration instance
+        Configuration configuration = mContext.getResources().getConfiguration();
+        if (configuration != mConfiguration || mConfigurationKey == null || mConfigurationKey.getMask() != mask) {
+            mConfiguration = configuration;
+            mConfigurationKey = new ConfigurationKey(configuration, mask);
+        }
+        return mConfigurationKey;
+    }
+
+    /**
+     * @return the color <code>colorAttribute</code> resolves to in the theme of the context as an unsigned int,
+     * or {@link RuntimeAttributeColorResolver#NO_COLOR}
+     */
+    long getThemeColor(@AttrRes int colorAttribute) {
+        Resources.Theme theme = mContext.getTheme();
+        if (theme != mTheme || mThemeColors == null) {
+            mTheme = theme;
+            mThemeColors = ThemeColorCache.get(theme, mContext.getResources().getConfiguration());
+        }
+        return mThemeColors.getColor(theme, colorAttribute);
+    }
+}
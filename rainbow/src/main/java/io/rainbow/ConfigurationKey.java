@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The parts of a {@link Configuration} selected by a combination of {@link ActivityInfo} <code>CONFIG_*</code> flags.
+ * Two configurations that only differ in bits outside of the mask produce equal keys.
+ */
+final class ConfigurationKey {
+
+    private static final int FIELD_COUNT = 18;
+
+    private final int mMask;
+
+    private final int[] mFields = new int[FIELD_COUNT];
+
+    /**
+     * A LocaleList from API 24, a Locale before
+     */
+    private final Object mLocales;
+
+    private final int mHashCode;
+
+    @SuppressWarnings("deprecation")
+    ConfigurationKey(@NonNull Configuration configuration, int mask) {
+        mMask = mask;
+        if ((mask & ActivityInfo.CONFIG_MCC) != 0) {
+            mFields[0] = configuration.mcc;
+        }
+        if ((mask & ActivityInfo.CONFIG_MNC) != 0) {
+            mFields[1] = configuration.mnc;
+        }
+        if ((mask & ActivityInfo.CONFIG_LAYOUT_DIRECTION) != 0) {
+            mFields[2] = configuration.getLayoutDirection();
+        }
+        if ((mask & ActivityInfo.CONFIG_TOUCHSCREEN) != 0) {
+            mFields[3] = configuration.touchscreen;
+        }
+        if ((mask & ActivityInfo.CONFIG_KEYBOARD) != 0) {
+            mFields[4] = configuration.keyboard;
+        }
+        if ((mask & ActivityInfo.CONFIG_KEYBOARD_HIDDEN) != 0) {
+            mFields[5] = configuration.keyboardHidden;
+            mFields[6] = configuration.hardKeyboardHidden;
+        }
+        if ((mask & ActivityInfo.CONFIG_NAVIGATION) != 0) {
+            mFields[7] = configuration.navigation;
+            mFields[8] = configuration.navigationHidden;
+        }
+        if ((mask & ActivityInfo.CONFIG_ORIENTATION) != 0) {
+            mFields[9] = configuration.orientation;
+        }
+        if ((mask & ActivityInfo.CONFIG_SCREEN_LAYOUT) != 0) {
+            mFields[10] = configuration.screenLayout;
+        }
+        if ((mask & ActivityInfo.CONFIG_UI_MODE) != 0) {
+            mFields[11] = configuration.uiMode;
+        }
+        if ((mask & ActivityInfo.CONFIG_SCREEN_SIZE) != 0) {
+            mFields[12] = configuration.screenWidthDp;
+            mFields[13] = configuration.screenHeightDp;
+        }
+        if ((mask & ActivityInfo.CONFIG_SMALLEST_SCREEN_SIZE) != 0) {
+            mFields[14] = configuration.smallestScreenWidthDp;
+        }
+        if ((mask & ActivityInfo.CONFIG_DENSITY) != 0) {
+            mFields[15] = configuration.densityDpi;
+        }
+        if ((mask & ActivityInfo.CONFIG_FONT_SCALE) != 0) {
+            mFields[16] = Float.floatToIntBits(configuration.fontScale);
+        }
+        if ((mask & ActivityInfo.CONFIG_COLOR_MODE) != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mFields[17] = configuration.colorMode;
+        }
+        if ((mask & ActivityInfo.CONFIG_LOCALE) != 0) {
+            mLocales = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? configuration.getLocales() : configuration.locale;
+        } else {
+            mLocales = null;
+        }
+        mHashCode = 31 * (31 * mask + Arrays.hashCode(mFields)) + (mLocales != null ? mLocales.hashCode() : 0);
+    }
+
+    int getMask() {
+        return mMask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConfigurationKey)) {
+            return false;
+        }
+        ConfigurationKey that = (ConfigurationKey) o;
+        return mHashCode == that.mHashCode
+                && mMask == that.mMask
+                && Arrays.equals(mFields, that.mFields)
+                && (mLocales != null ? mLocales.equals(that.mLocales) : that.mLocales == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+}
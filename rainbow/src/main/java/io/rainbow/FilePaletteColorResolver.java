@@ -0,0 +1,340 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.os.FileObserver;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link RuntimeAttributeColorResolver} that reads its palette from a local file and reloads it whenever the file changes.
+ * <p>
+ * Two file formats are supported, the format is detected from the file content:
+ * <ul>
+ * <li>JSON - a single object mapping attribute names to colors, i.e. <code>{"colorPrimary": "#3F51B5", "colorAccent": -65281}</code>.
+ * Colors can either be strings understood by {@link Color#parseColor(String)} or signed or unsigned 32 bit ARGB integers.</li>
+ * <li>Binary - see {@link #writeBinaryPalette(Map, OutputStream)}</li>
+ * </ul>
+ * Both formats are read with a streaming parser, the file is never loaded into memory as a whole.
+ * </p>
+ * <p>
+ * Every load produces a new immutable snapshot that replaces the previous one atomically, so lookups never block and never
+ * observe a half loaded palette. Reloads triggered by {@link #startWatching()} run on the {@link FileObserver} thread and
+ * never on the UI thread. Reloads run one at a time, so an older read never replaces a newer snapshot. A palette that fails
+ * to load leaves the previous snapshot in place.
+ * </p>
+ * <p>
+ * Colors are not retained, lookups read the current snapshot, so a reload takes effect with the next inflation or
+ * {@link RainbowContextWrapper#retheme(android.view.View, RainbowContextWrapper.OnRethemeListener)}.
+ * </p>
+ */
+public class FilePaletteColorResolver
+        extends RuntimeAttributeColorResolver {
+
+    /**
+     * Notified after every reload attempt. Called on the thread that performed the reload, which for file changes
+     * is the {@link FileObserver} thread.
+     */
+    public interface OnPaletteReloadListener {
+
+        /**
+         * @param reloadDurationNanos time it took to read, parse and publish the new palette
+         */
+        void onPaletteReloaded(@NonNull FilePaletteColorResolver resolver, long reloadDurationNanos);
+
+        /**
+         * The previous palette is still in use
+         */
+        void onPaletteReloadFailed(@NonNull FilePaletteColorResolver resolver, @NonNull IOException e);
+    }
+
+    /**
+     * "RBOW" - the first 4 bytes of a binary palette file
+     */
+    private static final int BINARY_MAGIC = 0x52424F57;
+
+    private static final int BINARY_VERSION = 1;
+
+    /**
+     * Upper bound of entries in a binary palette, far more than the attributes of any R.attr class.
+     * Protects against allocating for a corrupt entry count.
+     */
+    private static final int MAX_BINARY_ENTRIES = 0xFFFF;
+
+    /**
+     * Not {@link FileObserver#CREATE}, it fires before anything was written to the file
+     */
+    private static final int WATCH_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO;
+
+    private final File mFile;
+
+    private final PaletteFileObserver mFileObserver;
+
+    private final Object mReloadLock = new Object();
+
+    private volatile Map<String, Integer> mPalette = Collections.emptyMap();
+
+    private volatile long mLastReloadDurationNanos = -1;
+
+    @Nullable
+    private volatile OnPaletteReloadListener mOnPaletteReloadListener;
+
+    /**
+     * Does not touch the file, no color is resolved until the palette was loaded with {@link #reload()}. Load it off the
+     * UI thread before the first inflation that needs it, i.e. from a background thread at application start, then call
+     * {@link #startWatching()} to hot reload the palette on file changes.
+     *
+     * @param rAttrClass  The attribute class to use to resolve attribute values. i.e. R.attr.class
+     * @param paletteFile JSON or binary palette file
+     */
+    public FilePaletteColorResolver(Class rAttrClass, @NonNull File paletteFile) {
+        super(rAttrClass);
+        mFile = paletteFile;
+        mFileObserver = new PaletteFileObserver(paletteFile);
+    }
+
+    @Nullable
+    @Override
+    public ColorStateList getColorStateListByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        Integer color = getColorByAttrName(context, attributeName);
+        return color != null ? ColorStateList.valueOf(color) : null;
+    }
+
+    @Nullable
+    @Override
+    public Integer getColorByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        if (attributeName == null) {
+            return null;
+        }
+        return mPalette.get(attributeName);
+    }
+
+    /**
+     * Start reloading the palette whenever the file is rewritten or replaced
+     */
+    public void startWatching() {
+        mFileObserver.startWatching();
+    }
+
+    public void stopWatching() {
+        mFileObserver.stopWatching();
+    }
+
+    @VisibleForTesting
+    @NonNull
+    FileObserver getFileObserver() {
+        return mFileObserver;
+    }
+
+    public void setOnPaletteReloadListener(@Nullable OnPaletteReloadListener onPaletteReloadListener) {
+        mOnPaletteReloadListener = onPaletteReloadListener;
+    }
+
+    /**
+     * @return the duration of the last successful reload in nanoseconds or -1 if the palette was never loaded
+     */
+    public long getLastReloadDurationNanos() {
+        return mLastReloadDurationNanos;
+    }
+
+    /**
+     * Read the palette file and publish it as the new snapshot. Performs I/O, avoid calling it from the UI thread.
+     *
+     * @return true if the palette was loaded
+     */
+    public boolean reload() {
+        //the FileObserver thread and a caller may reload at the same time
+        synchronized (mReloadLock) {
+            return reloadLocked();
+        }
+    }
+
+    private boolean reloadLocked() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        Map<String, Integer> palette;
+        try {
+            palette = readPalette(mFile);
+        } catch (IOException e) {
+            Log.w("Rainbow", "palette could not be loaded from " + mFile, e);
+            OnPaletteReloadListener listener = mOnPaletteReloadListener;
+            if (listener != null) {
+                listener.onPaletteReloadFailed(this, e);
+            }
+            return false;
+        }
+        mPalette = Collections.unmodifiableMap(palette);
+        long duration = SystemClock.elapsedRealtimeNanos() - start;
+        mLastReloadDurationNanos = duration;
+        OnPaletteReloadListener listener = mOnPaletteReloadListener;
+        if (listener != null) {
+            listener.onPaletteReloaded(this, duration);
+        }
+        return true;
+    }
+
+    /**
+     * Write <code>palette</code> in the binary format: a 4 byte magic, a 4 byte version, a 4 byte entry count and then
+     * for every entry the attribute name as modified UTF-8 followed by the 4 byte ARGB color.
+     */
+    public static void writeBinaryPalette(@NonNull Map<String, Integer> palette, @NonNull OutputStream outputStream) throws
+            IOException {
+        if (palette.size() > MAX_BINARY_ENTRIES) {
+            throw new IllegalArgumentException("a binary palette holds at most " + MAX_BINARY_ENTRIES + " entries");
+        }
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(palette.size());
+        for (Map.Entry<String, Integer> entry : palette.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.flush();
+    }
+
+    @NonNull
+    private static Map<String, Integer> readPalette(@NonNull File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            in.mark(4);
+            DataInputStream dataIn = new DataInputStream(in);
+            int magic;
+            try {
+                magic = dataIn.readInt();
+            } catch (IOException e) {
+                magic = 0;
+            }
+            if (magic == BINARY_MAGIC) {
+                return readBinaryPalette(dataIn);
+            }
+            in.reset();
+            return readJsonPalette(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @NonNull
+    private static Map<String, Integer> readBinaryPalette(@NonNull DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != BINARY_VERSION) {
+            throw new IOException("unsupported binary palette version " + version);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > MAX_BINARY_ENTRIES) {
+            throw new IOException("invalid binary palette entry count " + count);
+        }
+        Map<String, Integer> palette = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            palette.put(name, in.readInt());
+        }
+        return palette;
+    }
+
+    @NonNull
+    private static Map<String, Integer> readJsonPalette(@NonNull InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        Map<String, Integer> palette = new HashMap<>();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token == JsonToken.STRING) {
+                    String value = reader.nextString();
+                    try {
+                        palette.put(name, Color.parseColor(value));
+                    } catch (RuntimeException e) {
+                        //IllegalArgumentException for unknown colors, StringIndexOutOfBoundsException for ""
+                        throw new IOException("invalid color \"" + value + "\" for " + name, e);
+                    }
+                } else if (token == JsonToken.NUMBER) {
+                    String value = reader.nextString();
+                    long color;
+                    try {
+                        color = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("invalid color " + value + " for " + name, e);
+                    }
+                    if (color < Integer.MIN_VALUE || color > 0xFFFFFFFFL) {
+                        throw new IOException("color " + value + " for " + name + " does not fit in 32 bits");
+                    }
+                    palette.put(name, (int) color);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            //JsonReader reports malformed documents with IllegalStateException
+            throw new IOException("malformed JSON palette", e);
+        }
+        return palette;
+    }
+
+    /**
+     * Watches the parent directory rather than the file itself so that atomic replacements (write to a temp file
+     * and rename it over the palette) are picked up as well.
+     */
+    private final class PaletteFileObserver
+            extends FileObserver {
+
+        private final String mFileName;
+
+        PaletteFileObserver(@NonNull File file) {
+            super(file.getAbsoluteFile().getParent(), WATCH_EVENTS);
+            mFileName = file.getName();
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String path) {
+            if ((event & WATCH_EVENTS) != 0 && mFileName.equals(path)) {
+                reload();
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies the current colors of a {@link RuntimeAttributeColorResolver} to an already inflated hierarchy, a slice per
+ * frame, so that re-theming a very large hierarchy does not drop frames. Must be used on the UI thread.
+ * <p>
+ * Walking the hierarchy is sliced across frames as well. Visibility is carried down the walk: every view is visited
+ * with the part of it its ancestors leave visible, transformations aside, so nothing is measured against the window.
+ * Visible views are themed as soon as the walk reaches them, hidden ones are queued until the walk is done.
+ * </p>
+ * <p>
+ * Detaching the root, i.e. when its Activity is destroyed, cancels the retheme so that the pending frame callbacks do not
+ * keep the hierarchy alive.
+ * </p>
+ */
+final class IncrementalRethemer
+        implements Choreographer.FrameCallback, View.OnAttachStateChangeListener {
+
+    /**
+     * Ints per walk entry: the visible rect of the view in its own coordinates, empty if it is hidden
+     */
+    private static final int RECT_SIZE = 4;
+
+    private final RuntimeAttributeColorResolver mResolver;
+
+    private final ViewColorBindings.Generation mGeneration;
+
+    private final long mFrameBudgetNanos;
+
+    @Nullable
+    private final RainbowContextWrapper.OnRethemeListener mListener;
+
+    /**
+     * Views the walk still has to visit, with their visible rects in {@link #mWalkRects}
+     */
+    private final List<View> mWalkViews = new ArrayList<>();
+
+    private int[] mWalkRects = new int[16 * RECT_SIZE];
+
+    private final List<View> mHiddenViews = new ArrayList<>();
+
+    private int mNextHiddenView;
+
+    private int mDiscoveredViewCount;
+
+    private int mThemedViewCount;
+
+    private int mFrameCount;
+
+    private boolean mCancelled;
+
+    @Nullable
+    private View mRoot;
+
+    IncrementalRethemer(@NonNull RuntimeAttributeColorResolver resolver, @NonNull ViewColorBindings.Generation generation,
+                        long frameBudgetNanos, @Nullable RainbowContextWrapper.OnRethemeListener listener) {
+        mResolver = resolver;
+        mGeneration = generation;
+        mFrameBudgetNanos = frameBudgetNanos;
+        mListener = listener;
+    }
+
+    void start(@NonNull View root) {
+        if (root.isShown()) {
+            push(root, 0, 0, root.getWidth(), root.getHeight());
+        } else {
+            push(root, 0, 0, 0, 0);
+        }
+        mRoot = root;
+        root.addOnAttachStateChangeListener(this);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void cancel() {
+        mCancelled = true;
+        Choreographer.getInstance().removeFrameCallback(this);
+        release();
+    }
+
+    @Override
+    public void onViewAttachedToWindow(View view) {
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(View view) {
+        cancel();
+    }
+
+    private void release() {
+        mWalkViews.clear();
+        mHiddenViews.clear();
+        if (mRoot != null) {
+            mRoot.removeOnAttachStateChangeListener(this);
+            mRoot = null;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mCancelled) {
+            return;
+        }
+        mFrameCount++;
+        long start = System.nanoTime();
+        ColorScope scope = null;
+        //the budget is checked before every view but the first so that a tiny budget still makes progress every frame
+        boolean progressed = false;
+        while (!mWalkViews.isEmpty() && (!progressed || System.nanoTime() - start < mFrameBudgetNanos)) {
+            progressed = true;
+            View view = visitNext();
+            if (view != null) {
+                if (scope == null) {
+                    scope = new ColorScope(view.getContext());
+                }
+                apply(scope, view);
+            }
+        }
+        while (mWalkViews.isEmpty() && mNextHiddenView < mHiddenViews.size()
+                && (!progressed || System.nanoTime() - start < mFrameBudgetNanos)) {
+            progressed = true;
+            View view = mHiddenViews.get(mNextHiddenView);
+            mHiddenViews.set(mNextHiddenView++, null);
+            if (scope == null) {
+                scope = new ColorScope(view.getContext());
+            }
+            apply(scope, view);
+        }
+
+        if (mListener != null) {
+            mListener.onRethemeProgress(mThemedViewCount, mDiscoveredViewCount);
+        }
+        if (!mWalkViews.isEmpty() || mNextHiddenView < mHiddenViews.size()) {
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            release();
+            if (mListener != null) {
+                mListener.onRethemeFinished(mThemedViewCount, mFrameCount);
+            }
+        }
+    }
+
+    /**
+     * Visit the next view of the walk and queue its children
+     *
+     * @return the view if it is visible and has to be themed now, null otherwise
+     */
+    @Nullable
+    private View visitNext() {
+        int index = mWalkViews.size() - 1;
+        View view = mWalkViews.remove(index);
+        int offset = index * RECT_SIZE;
+        int left = mWalkRects[offset];
+        int top = mWalkRects[offset + 1];
+        int right = mWalkRects[offset + 2];
+        int bottom = mWalkRects[offset + 3];
+        boolean visible = left < right && top < bottom;
+
+        if (view instanceof ViewGroup) {
+            ViewGroup viewGroup = (ViewGroup) view;
+            //children are laid out in the scrolled coordinates of their parent
+            int scrollX = viewGroup.getScrollX();
+            int scrollY = viewGroup.getScrollY();
+            for (int i = viewGroup.getChildCount() - 1; i >= 0; i--) {
+                View child = viewGroup.getChildAt(i);
+                if (visible && child.getVisibility() == View.VISIBLE) {
+                    int childLeft = child.getLeft() - scrollX;
+                    int childTop = child.getTop() - scrollY;
+                    push(child,
+                            Math.max(left, childLeft) - childLeft,
+                            Math.max(top, childTop) - childTop,
+                            Math.min(right, childLeft + child.getWidth()) - childLeft,
+                            Math.min(bottom, childTop + child.getHeight()) - childTop);
+                } else {
+                    push(child, 0, 0, 0, 0);
+                }
+            }
+        }
+
+        if (!ViewColorBindings.isStale(view, mGeneration)) {
+            //no bindings, or already themed with the current colors, i.e. when attached again
+            return null;
+        }
+        mDiscoveredViewCount++;
+        if (visible) {
+            return view;
+        }
+        mHiddenViews.add(view);
+        return null;
+    }
+
+    private void push(@NonNull View view, int left, int top, int right, int bottom) {
+        int offset = mWalkViews.size() * RECT_SIZE;
+        if (offset + RECT_SIZE > mWalkRects.length) {
+            mWalkRects = Arrays.copyOf(mWalkRects, mWalkRects.length * 2);
+        }
+        mWalkRects[offset] = left;
+        mWalkRects[offset + 1] = top;
+        mWalkRects[offset + 2] = right;
+        mWalkRects[offset + 3] = bottom;
+        mWalkViews.add(view);
+    }
+
+    /**
+     * A queued view may have been themed meanwhile, i.e. by {@link RainbowContextWrapper#applyPendingColors(View)},
+     * only the views themed here are counted
+     */
+    private void apply(@NonNull ColorScope scope, @NonNull View view) {
+        ViewColorBindings bindings = ViewColorBindings.get(view);
+        if (bindings != null && ViewColorBindings.isStale(view, mGeneration)) {
+            bindings.apply(scope, mResolver, view);
+            ViewColorBindings.markApplied(view, mGeneration);
+            mThemedViewCount++;
+        }
+    }
+}
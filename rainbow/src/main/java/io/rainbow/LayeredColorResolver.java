@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link RuntimeAttributeColorResolver} composed of ordered {@link Layer}s, i.e. user overrides, then brand colors,
+ * then product defaults. The first layer that has a color for an attribute wins.
+ * <p>
+ * The layers are flattened into a single table indexed by attribute id when the resolver is created. Inflation looks
+ * colors up by id, which is one read of that table. Changing a layer only flattens again the attributes that changed.
+ * </p>
+ */
+public class LayeredColorResolver
+        extends RuntimeAttributeColorResolver {
+
+    private static final long NO_COLOR = RuntimeAttributeColorResolver.NO_COLOR;
+
+    private final Layer[] mLayers;
+
+    /**
+     * Attribute name to attribute id, the reverse of the R.attr map
+     */
+    private final Map<String, Integer> mAttrIds;
+
+    /**
+     * Package and type bits shared by the attribute ids in {@link #mTable}, the upper 16 bits of an id
+     */
+    private final int mTablePrefix;
+
+    /**
+     * The winning color of every attribute with the {@link #mTablePrefix} as an unsigned int, or {@link #NO_COLOR},
+     * indexed by the entry bits of the attribute id
+     */
+    private final AtomicLongArray mTable;
+
+    /**
+     * The winning colors of the attributes outside of {@link #mTable}, copied on write
+     */
+    private volatile SparseLongArray mOtherColors = new SparseLongArray();
+
+    private int mFlattenCount;
+
+    /**
+     * @param rAttrClass The attribute class to use to resolve attribute values. i.e. R.attr.class
+     * @param layers     ordered from the highest priority to the lowest. A layer can belong to a single resolver.
+     */
+    public LayeredColorResolver(Class rAttrClass, @NonNull List<Layer> layers) {
+        super(rAttrClass);
+        mLayers = layers.toArray(new Layer[layers.size()]);
+        SparseArray<String> attrValueToNameMap = getAttrValueToNameMap();
+        mAttrIds = new HashMap<>(attrValueToNameMap.size() * 4 / 3 + 1);
+        for (int i = 0; i < attrValueToNameMap.size(); i++) {
+            mAttrIds.put(attrValueToNameMap.valueAt(i), attrValueToNameMap.keyAt(i));
+        }
+        mTablePrefix = findTablePrefix(attrValueToNameMap);
+        mTable = new AtomicLongArray(getTableSize(attrValueToNameMap, mTablePrefix));
+        for (int i = 0; i < mTable.length(); i++) {
+            mTable.set(i, NO_COLOR);
+        }
+        synchronized (this) {
+            for (Layer layer : mLayers) {
+                for (String attributeName : layer.attach(this)) {
+                    flatten(attributeName);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public ColorStateList getColorStateListByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        Integer color = getColorByAttrName(context, attributeName);
+        return color != null ? ColorStateList.valueOf(color) : null;
+    }
+
+    /**
+     * Names of attributes that are not in the R.attr class are not part of the table, they are looked up in the layers
+     */
+    @Nullable
+    @Override
+    public Integer getColorByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        if (attributeName == null) {
+            return null;
+        }
+        Integer attrId = mAttrIds.get(attributeName);
+        if (attrId == null) {
+            for (Layer layer : mLayers) {
+                Integer color = layer.get(attributeName);
+                if (color != null) {
+                    return color;
+                }
+            }
+            return null;
+        }
+        long color = getFlattened(attrId);
+        return color != NO_COLOR ? (int) color : null;
+    }
+
+    @Nullable
+    @Override
+    ColorStateList getColorStateListByAttrId(@NonNull ColorScope scope, int colorAttrValue) {
+        long color = getFlattened(colorAttrValue);
+        return color != NO_COLOR ? ColorStateList.valueOf((int) color) : null;
+    }
+
+    @Override
+    long getColorByAttrId(@NonNull ColorScope scope, int colorAttrValue) {
+        return getFlattened(colorAttrValue);
+    }
+
+    /**
+     * @return how many attributes were flattened since the resolver was created
+     */
+    @VisibleForTesting
+    synchronized int getFlattenCount() {
+        return mFlattenCount;
+    }
+
+    private long getFlattened(int attrId) {
+        if (attrId >>> 16 == mTablePrefix) {
+            int entry = attrId & 0xFFFF;
+            return entry < mTable.length() ? mTable.get(entry) : NO_COLOR;
+        }
+        return mOtherColors.get(attrId, NO_COLOR);
+    }
+
+    private synchronized void onLayerChanged(@NonNull Collection<String> attributeNames) {
+        for (String attributeName : attributeNames) {
+            flatten(attributeName);
+        }
+    }
+
+    /**
+     * Takes the lock of every layer in turn, callers hold the lock of the resolver but never the one of a layer
+     */
+    private void flatten(@NonNull String attributeName) {
+        Integer attrId = mAttrIds.get(attributeName);
+        if (attrId == null) {
+            return;
+        }
+        long color = NO_COLOR;
+        for (Layer layer : mLayers) {
+            Integer layerColor = layer.get(attributeName);
+            if (layerColor != null) {
+                color = layerColor & 0xFFFFFFFFL;
+                break;
+            }
+        }
+        if (attrId >>> 16 == mTablePrefix) {
+            mTable.set(attrId & 0xFFFF, color);
+        } else {
+            SparseLongArray otherColors = mOtherColors.clone();
+            otherColors.put(attrId, color);
+            mOtherColors = otherColors;
+        }
+        mFlattenCount++;
+    }
+
+    /**
+     * @return the upper 16 bits most attribute ids share, ids are sorted so equal prefixes are adjacent
+     */
+    private static int findTablePrefix(@NonNull SparseArray<String> attrValueToNameMap) {
+        int bestPrefix = 0;
+        int bestCount = 0;
+        int count = 0;
+        for (int i = 0; i < attrValueToNameMap.size(); i++) {
+            int prefix = attrValueToNameMap.keyAt(i) >>> 16;
+            count = i > 0 && attrValueToNameMap.keyAt(i - 1) >>> 16 == prefix ? count + 1 : 1;
+            if (count > bestCount) {
+                bestCount = count;
+                bestPrefix = prefix;
+            }
+        }
+        return bestPrefix;
+    }
+
+    private static int getTableSize(@NonNull SparseArray<String> attrValueToNameMap, int prefix) {
+        int size = 0;
+        for (int i = 0; i < attrValueToNameMap.size(); i++) {
+            int attrId = attrValueToNameMap.keyAt(i);
+            if (attrId >>> 16 == prefix) {
+                size = Math.max(size, (attrId & 0xFFFF) + 1);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A set of attribute name to color mappings, can be changed at any time from any thread
+     */
+    public static final class Layer {
+
+        /**
+         * Guarded by this
+         */
+        private final Map<String, Integer> mColors = new HashMap<>();
+
+        @Nullable
+        private volatile LayeredColorResolver mOwner;
+
+        public Layer() {
+        }
+
+        public Layer(@NonNull Map<String, Integer> colors) {
+            mColors.putAll(colors);
+        }
+
+        public void put(@NonNull String attributeName, @ColorInt int color) {
+            synchronized (this) {
+                mColors.put(attributeName, color);
+            }
+            onChanged(Collections.singletonList(attributeName));
+        }
+
+        public void putAll(@NonNull Map<String, Integer> colors) {
+            List<String> attributeNames;
+            synchronized (this) {
+                mColors.putAll(colors);
+                attributeNames = new ArrayList<>(colors.keySet());
+            }
+            onChanged(attributeNames);
+        }
+
+        public void remove(@NonNull String attributeName) {
+            boolean removed;
+            synchronized (this) {
+                removed = mColors.remove(attributeName) != null;
+            }
+            if (removed) {
+                onChanged(Collections.singletonList(attributeName));
+            }
+        }
+
+        public void clear() {
+            List<String> attributeNames;
+            synchronized (this) {
+                attributeNames = new ArrayList<>(mColors.keySet());
+                mColors.clear();
+            }
+            onChanged(attributeNames);
+        }
+
+        @Nullable
+        synchronized Integer get(@NonNull String attributeName) {
+            return mColors.get(attributeName);
+        }
+
+        /**
+         * Called without holding the lock of the layer, the owner takes it while flattening
+         */
+        private void onChanged(@NonNull Collection<String> attributeNames) {
+            LayeredColorResolver owner = mOwner;
+            if (owner != null) {
+                owner.onLayerChanged(attributeNames);
+            }
+        }
+
+        /**
+         * @return the attributes the layer has a color for, copied under the lock of the layer. A change made after
+         * the copy reaches the owner through {@link #onChanged(Collection)}.
+         */
+        @NonNull
+        private synchronized List<String> attach(@NonNull LayeredColorResolver owner) {
+            if (mOwner != null) {
+                throw new IllegalStateException("Layer already belongs to a LayeredColorResolver");
+            }
+            mOwner = owner;
+            return new ArrayList<>(mColors.keySet());
+        }
+    }
+}
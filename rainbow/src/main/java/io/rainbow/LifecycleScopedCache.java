@@ -0,0 +1,244 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Holds one value per key without keeping the key alive, for keys that belong to an Activity, i.e. its
+ * {@link Context} or its {@link android.content.res.Resources.Theme}.
+ * <p>
+ * Keys are weak, entries of an Activity are evicted as soon as it is destroyed (once
+ * {@link #registerLifecycleCallbacks(Context)} was called) and the number of entries is bounded,
+ * the least recently used key is evicted first. Values must not reference their key strongly.
+ * </p>
+ */
+final class LifecycleScopedCache<K, V>
+        implements RainbowDebug.TrackedCache {
+
+    /**
+     * Decides which keys belong to a destroyed Activity
+     */
+    interface ScopeMatcher<K> {
+
+        boolean belongsTo(@NonNull K key, @NonNull Activity activity);
+    }
+
+    /**
+     * Weak so that a collected cache drops out by itself
+     */
+    private static final Set<LifecycleScopedCache<?, ?>> sInstances =
+            Collections.newSetFromMap(new WeakHashMap<LifecycleScopedCache<?, ?>, Boolean>());
+
+    /**
+     * There is a single Application per process, checking the instance keeps it right when that is not the case, i.e. in tests
+     */
+    private static final Set<Application> sRegisteredApplications =
+            Collections.newSetFromMap(new WeakHashMap<Application, Boolean>());
+
+    private final String mName;
+
+    private final int mMaxSize;
+
+    private final ScopeMatcher<K> mScopeMatcher;
+
+    private final WeakHashMap<K, Entry<V>> mEntries = new WeakHashMap<>();
+
+    private long mAccessCount;
+
+    private long mEvictionCount;
+
+    LifecycleScopedCache(@NonNull String name, int maxSize, @NonNull ScopeMatcher<K> scopeMatcher) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mName = name;
+        mMaxSize = maxSize;
+        mScopeMatcher = scopeMatcher;
+        synchronized (sInstances) {
+            sInstances.add(this);
+        }
+        RainbowDebug.register(this);
+    }
+
+    /**
+     * Evict the entries of every Activity when it is destroyed. Only the first call per Application has an effect.
+     */
+    static void registerLifecycleCallbacks(@NonNull Context context) {
+        Context applicationContext = context.getApplicationContext();
+        if (!(applicationContext instanceof Application)) {
+            return;
+        }
+        Application application = (Application) applicationContext;
+        synchronized (sInstances) {
+            if (!sRegisteredApplications.add(application)) {
+                return;
+            }
+        }
+        application.registerActivityLifecycleCallbacks(new EvictingLifecycleCallbacks());
+    }
+
+    @Nullable
+    synchronized V get(@NonNull K key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.mLastAccess = ++mAccessCount;
+        return entry.mValue;
+    }
+
+    synchronized void put(@NonNull K key, @NonNull V value) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry<>();
+            mEntries.put(key, entry);
+        }
+        entry.mValue = value;
+        entry.mLastAccess = ++mAccessCount;
+        if (mEntries.size() > mMaxSize) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    synchronized void remove(@NonNull K key) {
+        if (mEntries.remove(key) != null) {
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Remove the entries that belong to <code>activity</code>
+     */
+    synchronized void evict(@NonNull Activity activity) {
+        Iterator<K> iterator = mEntries.keySet().iterator();
+        while (iterator.hasNext()) {
+            K key = iterator.next();
+            if (key != null && mScopeMatcher.belongsTo(key, activity)) {
+                iterator.remove();
+                mEvictionCount++;
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        K leastRecentlyUsed = null;
+        long leastRecentAccess = Long.MAX_VALUE;
+        for (Map.Entry<K, Entry<V>> entry : mEntries.entrySet()) {
+            if (entry.getKey() != null && entry.getValue().mLastAccess < leastRecentAccess) {
+                leastRecentAccess = entry.getValue().mLastAccess;
+                leastRecentlyUsed = entry.getKey();
+            }
+        }
+        if (leastRecentlyUsed != null) {
+            mEntries.remove(leastRecentlyUsed);
+            mEvictionCount++;
+        }
+    }
+
+    private static void evictFromAll(@NonNull Activity activity) {
+        List<LifecycleScopedCache<?, ?>> caches;
+        synchronized (sInstances) {
+            caches = new ArrayList<>(sInstances);
+        }
+        for (LifecycleScopedCache<?, ?> cache : caches) {
+            cache.evict(activity);
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private V mValue;
+
+        private long mLastAccess;
+    }
+
+    private static final class EvictingLifecycleCallbacks
+            implements Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            evictFromAll(activity);
+        }
+    }
+}
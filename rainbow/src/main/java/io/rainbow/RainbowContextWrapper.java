@@ -26,28 +26,23 @@ package io.rainbow;
 
 import android.content.Context;
 import android.content.ContextWrapper;
-import android.content.res.ColorStateList;
-import android.graphics.PorterDuff;
-import android.graphics.drawable.Drawable;
-import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.graphics.drawable.DrawableCompat;
-import android.support.v4.view.ViewCompat;
-import android.support.v4.widget.CompoundButtonCompat;
-import android.support.v4.widget.ImageViewCompat;
-import android.support.v7.widget.Toolbar;
 import android.util.AttributeSet;
-import android.util.TypedValue;
+import android.view.InflateException;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.CompoundButton;
-import android.widget.ImageView;
-import android.widget.ProgressBar;
-import android.widget.TextView;
+import android.view.ViewGroup;
+import android.view.ViewStub;
 
-import kotlin.text.StringsKt;
+import org.xmlpull.v1.XmlPullParser;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * RainbowContextWrapper brings runtime color attribute override in a simple way through
@@ -65,14 +60,51 @@ import kotlin.text.StringsKt;
  * {@link android.R.attr#textColorHighlight}
  * {@link android.R.attr#tint}
  * </p>
+ * <p>
+ * Views created in code can be themed with {@link #applyColors(View, ColorBindingSpec)}.
+ * </p>
  */
 public final class RainbowContextWrapper
         extends ContextWrapper {
 
+    /**
+     * Default time {@link #retheme(View, OnRethemeListener)} may spend per frame, leaves most of a 60fps frame
+     * for measure, layout and draw
+     */
+    public static final long DEFAULT_RETHEME_FRAME_BUDGET_NANOS = 4_000_000L;
+
+    /**
+     * Progress of {@link #retheme(View, long, OnRethemeListener)}, called on the UI thread
+     */
+    public interface OnRethemeListener {
+
+        /**
+         * Called after every frame of the retheme.
+         *
+         * @param themedViewCount     views themed so far
+         * @param discoveredViewCount views found so far that have to be themed. The hierarchy is walked across frames as
+         *                            well, so it grows until the walk is done and is not the total until then.
+         */
+        void onRethemeProgress(int themedViewCount, int discoveredViewCount);
+
+        /**
+         * @param themedViewCount views themed by the retheme, views themed meanwhile by other means are not counted
+         */
+        void onRethemeFinished(int themedViewCount, int frameCount);
+    }
+
     private final RuntimeAttributeColorResolver mRuntimeAttributeColorResolver;
 
+    /**
+     * Counts the rethemes of this wrapper, views themed by it record the generation they were themed in
+     */
+    private final ViewColorBindings.Generation mGeneration = new ViewColorBindings.Generation();
+
     private RainbowLayoutInflater mInflater;
 
+    @Nullable
+    private IncrementalRethemer mRethemer;
+
     private RainbowContextWrapper(@NonNull Context base, @NonNull RuntimeAttributeColorResolver runtimeAttributeColorResolver) {
         super(base);
         mRuntimeAttributeColorResolver = runtimeAttributeColorResolver;
@@ -80,20 +112,183 @@ public final class RainbowContextWrapper
 
     /**
      * Call this method from {@link android.app.Activity#attachBaseContext(Context)}.
-     * Always use the wrapped context as the param to <code>super.attachBaseContext(wrappedContext)</code>
+     * Always use the wrapped context as the param to <code>super.attachBaseContext(wrappedContext)</code>.
+     * A factory installed on the inflater of <code>context</code> before it is wrapped, other than by Rainbow, is kept but the views
+     * it creates are not themed.
      * Wrap a context to intercept {@link #getSystemService(String)} calls for {@link Context#LAYOUT_INFLATER_SERVICE}
      * so that we can provide our own {@link LayoutInflater} that will override view attributes with values from {@link RuntimeAttributeColorResolver}
+     * <p>
+     * Wrapping a context that is already wrapped does not stack another inflater on top of the existing one: the same resolver
+     * returns <code>context</code> as is, a different resolver takes precedence over the existing one which is only used
+     * for the attributes it does not resolve.
+     * </p>
      */
     @NonNull
     public static Context wrap(@NonNull Context context, @NonNull RuntimeAttributeColorResolver runtimeAttributeColorResolver) {
+        LifecycleScopedCache.registerLifecycleCallbacks(context);
+        RainbowContextWrapper existing = from(context);
+        if (existing != null) {
+            if (existing.mRuntimeAttributeColorResolver == runtimeAttributeColorResolver) {
+                //already wrapped, another layer would only process every view again
+                return context;
+            }
+            //the new layer replaces the existing one for inflation, keep the colors of the existing one as a fallback
+            runtimeAttributeColorResolver = new ChainedColorResolver(runtimeAttributeColorResolver, existing.mRuntimeAttributeColorResolver);
+        }
         return new RainbowContextWrapper(context, runtimeAttributeColorResolver);
     }
 
+    /**
+     * @return the {@link RainbowContextWrapper} <code>context</code> is or wraps, null if there is none
+     */
+    @Nullable
+    public static RainbowContextWrapper from(@Nullable Context context) {
+        Context current = context;
+        while (current instanceof ContextWrapper) {
+            if (current instanceof RainbowContextWrapper) {
+                return (RainbowContextWrapper) current;
+            }
+            current = ((ContextWrapper) current).getBaseContext();
+        }
+        return null;
+    }
+
+    /**
+     * Apply the colors of the resolver to a view that was not inflated through this wrapper, i.e. created in code.
+     * Uses the same attribute handling and caches as inflation. The bindings are kept on the view so that
+     * {@link #retheme(View, OnRethemeListener)} covers it as well.
+     */
+    public void applyColors(@NonNull View view, @NonNull ViewColorBindings bindings) {
+        applyColors(new ColorScope(view.getContext()), view, bindings);
+    }
+
+    private void applyColors(@NonNull ColorScope scope, @NonNull View view, @NonNull ViewColorBindings bindings) {
+        bindings.apply(scope, mRuntimeAttributeColorResolver, view);
+        attachBindings(view, bindings);
+    }
+
+    /**
+     * Same as {@link #applyColors(View, ViewColorBindings)} for every view of the subtree of <code>root</code>
+     * (including <code>root</code>) that <code>spec</code> binds. Walks the subtree once, without recursion.
+     */
+    public void applyColors(@NonNull View root, @NonNull ColorBindingSpec spec) {
+        ColorScope scope = new ColorScope(root.getContext());
+        List<View> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            View view = stack.remove(stack.size() - 1);
+            ViewColorBindings bindings = spec.getBindings(view);
+            if (bindings != null) {
+                applyColors(scope, view, bindings);
+            }
+            if (view instanceof ViewGroup) {
+                ViewGroup viewGroup = (ViewGroup) view;
+                for (int i = viewGroup.getChildCount() - 1; i >= 0; i--) {
+                    stack.add(viewGroup.getChildAt(i));
+                }
+            }
+        }
+    }
+
+    private void attachBindings(@NonNull View view, @NonNull ViewColorBindings bindings) {
+        ViewColorBindings existing = ViewColorBindings.get(view);
+        if (existing == null) {
+            bindings.attach(view, mGeneration);
+        } else if (existing == bindings || existing.contains(bindings)) {
+            //i.e. the same spec applied again, keep the bindings and only record that they are up to date
+            ViewColorBindings.markApplied(view, mGeneration);
+        } else {
+            existing.merge(bindings).attach(view, mGeneration);
+        }
+    }
+
+    /**
+     * Colors resolved from the theme of <code>context</code> are cached, call this after mutating the theme in place,
+     * i.e. with {@link android.content.res.Resources.Theme#applyStyle(int, boolean)}.
+     * Replacing the theme or changing the configuration does not require it.
+     */
+    public static void invalidateThemeColors(@NonNull Context context) {
+        ThemeColorCache.invalidate(context.getTheme());
+    }
+
+    /**
+     * Same as {@link #retheme(View, long, OnRethemeListener)} with {@link #DEFAULT_RETHEME_FRAME_BUDGET_NANOS}
+     */
+    public void retheme(@NonNull View root, @Nullable OnRethemeListener listener) {
+        retheme(root, DEFAULT_RETHEME_FRAME_BUDGET_NANOS, listener);
+    }
+
+    /**
+     * Apply the current colors of the resolver again to every view under <code>root</code> that was inflated
+     * with a supported attribute, i.e. after {@link RuntimeAttributeColorResolver#invalidate()}.
+     * <p>
+     * The work is split across frames with {@link android.view.Choreographer}, each frame spending about
+     * <code>frameBudgetNanos</code>. Visible views are themed first. A previous retheme that has not finished is cancelled.
+     * Must be called on the UI thread. Detaching <code>root</code>, i.e. when its Activity is destroyed, cancels it.
+     * </p>
+     * <p>
+     * Views outside of the hierarchy while it runs, i.e. detached RecyclerView holders, are themed when they are
+     * attached again, see {@link #applyPendingColors(View)}.
+     * </p>
+     */
+    public void retheme(@NonNull View root, long frameBudgetNanos, @Nullable OnRethemeListener listener) {
+        cancelRetheme();
+        mGeneration.next();
+        mRethemer = new IncrementalRethemer(mRuntimeAttributeColorResolver, mGeneration, frameBudgetNanos, listener);
+        mRethemer.start(root);
+    }
+
+    public void cancelRetheme() {
+        if (mRethemer != null) {
+            mRethemer.cancel();
+            mRethemer = null;
+        }
+    }
+
+    /**
+     * Apply the current colors to the views under <code>root</code> that missed the last retheme because they were
+     * not part of the hierarchy at the time, i.e. RecyclerView holders that were detached or in the recycled pool.
+     * <p>
+     * Hierarchies inflated through this wrapper do it by themselves when they are attached again. Call it from
+     * <code>onBindViewHolder</code> for item views created otherwise. Views that are up to date are skipped, so
+     * calling it on every bind is cheap.
+     * </p>
+     */
+    public void applyPendingColors(@NonNull View root) {
+        applyPendingColors(mRuntimeAttributeColorResolver, mGeneration, root);
+    }
+
+    private static void applyPendingColors(@NonNull RuntimeAttributeColorResolver resolver,
+                                           @NonNull ViewColorBindings.Generation generation, @NonNull View root) {
+        ColorScope scope = null;
+        List<View> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            View view = stack.remove(stack.size() - 1);
+            if (ViewColorBindings.isStale(view, generation)) {
+                if (scope == null) {
+                    scope = new ColorScope(view.getContext());
+                }
+                ViewColorBindings.get(view).apply(scope, resolver, view);
+                ViewColorBindings.markApplied(view, generation);
+            }
+            if (view instanceof ViewGroup) {
+                ViewGroup viewGroup = (ViewGroup) view;
+                for (int i = viewGroup.getChildCount() - 1; i >= 0; i--) {
+                    stack.add(viewGroup.getChildAt(i));
+                }
+            }
+        }
+    }
+
     @Override
     public Object getSystemService(String name) {
         if (LAYOUT_INFLATER_SERVICE.equals(name)) {
             if (mInflater == null) {
-                mInflater = new RainbowLayoutInflater(LayoutInflater.from(getBaseContext()), this, mRuntimeAttributeColorResolver);
+                //clone the inflater of the base context with its factories as they are, the wrappers of an inner Rainbow
+                //layer hand their views to whichever RainbowLayoutInflater is inflating. Factories are wrapped when they are
+                //set, wrapping a copied one here would make LayoutInflater merge it with the copy and call it twice
+                mInflater = new RainbowLayoutInflater(LayoutInflater.from(getBaseContext()), this, mRuntimeAttributeColorResolver, mGeneration);
             }
             return mInflater;
         }
@@ -108,24 +303,84 @@ public final class RainbowContextWrapper
          */
         private static final String[] sClassPrefixList = {"android.widget.", "android.webkit.", "android.app."};
 
+        private static final int SUPPORTED_ATTRIBUTE_COUNT = 11;
+
+        private static final Class<?>[] sConstructorSignature = new Class[]{Context.class, AttributeSet.class};
+
+        /**
+         * Class loader to view class name to constructor. Like LayoutInflater#sConstructorMap constructors are kept for
+         * the life of the process, keyed by class loader so that a class loaded by another loader is never reused.
+         */
+        private static final Map<ClassLoader, Map<String, Constructor<? extends View>>> sConstructorMaps = new HashMap<>();
+
+        /**
+         * The inflater inflating on the current thread, the factory wrappers hand the views they create to it
+         */
+        private static final ThreadLocal<RainbowLayoutInflater> sInflating = new ThreadLocal<>();
+
         private RuntimeAttributeColorResolver mRuntimeAttributeColorResolver;
 
-        RainbowLayoutInflater(LayoutInflater layoutInflater, Context newContext, @NonNull RuntimeAttributeColorResolver runtimeAttributeColorResolver) {
+        /**
+         * Scratch space for the bindings of the view being inflated, sized for every supported attribute
+         */
+        private final int[] mBindingAttributes = new int[SUPPORTED_ATTRIBUTE_COUNT];
+
+        private final int[] mBindingColorAttributes = new int[SUPPORTED_ATTRIBUTE_COUNT];
+
+        /**
+         * Shared by the views of the inflation in progress, null outside of {@link #inflate(XmlPullParser, ViewGroup, boolean)}
+         */
+        @Nullable
+        private ColorScope mScope;
+
+        private int mProcessedViewCount;
+
+        /**
+         * Of the wrapper the inflater belongs to
+         */
+        private final ViewColorBindings.Generation mGeneration;
+
+        RainbowLayoutInflater(LayoutInflater layoutInflater, Context newContext, @NonNull RuntimeAttributeColorResolver runtimeAttributeColorResolver,
+                              @NonNull ViewColorBindings.Generation generation) {
             super(layoutInflater, newContext);
             mRuntimeAttributeColorResolver = runtimeAttributeColorResolver;
+            mGeneration = generation;
         }
 
         @Override
         public LayoutInflater cloneInContext(Context newContext) {
-            return new RainbowLayoutInflater(this, newContext, mRuntimeAttributeColorResolver);
+            return new RainbowLayoutInflater(this, newContext, mRuntimeAttributeColorResolver, mGeneration);
+        }
+
+        @Override
+        public View inflate(XmlPullParser parser, @Nullable ViewGroup root, boolean attachToRoot) {
+            //a view constructor may inflate again with this inflater
+            ColorScope previousScope = mScope;
+            RainbowLayoutInflater previousInflater = sInflating.get();
+            mScope = new ColorScope(getContext());
+            sInflating.set(this);
+            int processedViewCount = mProcessedViewCount;
+            View view;
+            try {
+                view = super.inflate(parser, root, attachToRoot);
+            } finally {
+                mScope = previousScope;
+                sInflating.set(previousInflater);
+            }
+            if (view != root && mProcessedViewCount != processedViewCount) {
+                //i.e. a RecyclerView item, it can be detached while a retheme runs
+                view.addOnAttachStateChangeListener(new ApplyPendingColorsOnAttach(mRuntimeAttributeColorResolver, mGeneration));
+            }
+            return view;
         }
 
         @Override
         public void setFactory(Factory factory) {
-            if (factory instanceof FactoryWrapper) {
+            //a wrapper set on another RainbowLayoutInflater already hands its views to the inflating one
+            if (factory instanceof FactoryWrapper || factory instanceof Factory2Wrapper) {
                 super.setFactory(factory);
             } else {
-                super.setFactory(new FactoryWrapper(factory));
+                super.setFactory(new FactoryWrapper(factory, this));
             }
         }
 
@@ -134,7 +389,7 @@ public final class RainbowContextWrapper
             if (factory instanceof Factory2Wrapper) {
                 super.setFactory2(factory);
             } else {
-                super.setFactory2(new Factory2Wrapper(factory));
+                super.setFactory2(new Factory2Wrapper(factory, this));
             }
         }
 
@@ -152,158 +407,41 @@ public final class RainbowContextWrapper
             if (view == null || attrs == null) {
                 return;
             }
+            if (ViewColorBindings.get(view) != null) {
+                //already processed by another factory or inflater in the chain
+                RainbowDebug.onViewProcessedAgain();
+                return;
+            }
+            ColorScope scope = mScope;
+            if (scope == null) {
+                scope = new ColorScope(view.getContext());
+            } else {
+                //a view under android:theme has a context of its own, resolve in it as retheme and applyColors do
+                scope.setContext(view.getContext());
+            }
+            int bindingCount = 0;
             int count = attrs.getAttributeCount();
             for (int i = 0; i < count; i++) {
                 int attributeNameResource = attrs.getAttributeNameResource(i);
-
-                //region buttonTint
-                if (view instanceof CompoundButton && (attributeNameResource == android.R.attr.buttonTint || attributeNameResource == android.support.v7.appcompat.R.attr.buttonTint)) {
-                    CompoundButton compoundButton = (CompoundButton) view;
-                    String buttonTintValue = attrs.getAttributeValue(i);
-                    ColorStateList checkboxColor = mRuntimeAttributeColorResolver.getColorStateListByAttrValue(getContext(), buttonTintValue);
-                    if (checkboxColor != null) {
-                        CompoundButtonCompat.setButtonTintList(compoundButton, checkboxColor);
-                    }
-
-                }
-                //endregion
-                //region drawableTint
-                if (attributeNameResource == android.R.attr.drawableTint) {
-                    String drawableTintAttrValue = attrs.getAttributeValue(i);
-                    if (view instanceof TextView) {
-                        TextView textView = (TextView) view;
-                        Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), drawableTintAttrValue);
-                        if (color == null) {
-                            //This is because there is no AppCompat version for drawableTint
-                            //in which case of API < 23 the system will ignore the attribute but we WANT the effect before API 23 as well
-                            Integer attrValue = attrValueToInt(drawableTintAttrValue);
-                            if (attrValue != null) {
-                                TypedValue outValue = new TypedValue();
-                                boolean isResolved = getContext().getTheme()
-                                        .resolveAttribute(attrValue, outValue, true);
-                                if (isResolved) {
-                                    color = outValue.data;
-                                }
-                            }
-
-                        }
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                            if (color != null) {
-                                textView.setCompoundDrawableTintList(ColorStateList.valueOf(color));
-                            }
-                        } else {
-                            Drawable[] drawables = textView.getCompoundDrawablesRelative();
-                            for (Drawable drawable : drawables) {
-                                if (drawable != null && color != null) {
-                                    DrawableCompat.setTint(drawable, color);
-                                }
-                            }
-                        }
-                    }
+                if (!ColorAttributeApplier.isSupported(attributeNameResource)) {
+                    continue;
                 }
-                //endregion
-                //region textColor
-                if (attributeNameResource == android.R.attr.textColor && view instanceof TextView) {
-                    String textColorAttrValue = attrs.getAttributeValue(i);
-                    TextView textView = (TextView) view;
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), textColorAttrValue);
-                    if (color != null) {
-                        textView.setTextColor(color);
-                    }
-                }
-                //endregion
-                //region background
-                if (attributeNameResource == android.R.attr.background) {
-                    String backgroundColorAttrValue = attrs.getAttributeValue(i);
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), backgroundColorAttrValue);
-                    if (color != null) {
-                        view.setBackgroundColor(color);
-                    }
+                Integer colorAttribute = RuntimeAttributeColorResolver.attrValueToInt(attrs.getAttributeValue(i));
+                if (colorAttribute == null) {
+                    continue;
                 }
-                //endregion
-                //region indeterminateTint
-                if (attributeNameResource == android.R.attr.indeterminateTint) {
-                    String indeterminateTintColorAttrValue = attrs.getAttributeValue(i);
-                    if (view instanceof ProgressBar) {
-                        Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), indeterminateTintColorAttrValue);
-                        if (color != null) {
-                            ProgressBar progressBar = (ProgressBar) view;
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                progressBar.setIndeterminateTintList(ColorStateList.valueOf(color));
-                            } else {
-                                Drawable indeterminateDrawable = progressBar.getIndeterminateDrawable();
-                                DrawableCompat.setTint(indeterminateDrawable, color);
-                            }
-                        }
-                    }
-                }
-                //endregion
-                //region backgroundTint
-                if (attributeNameResource == android.R.attr.backgroundTint) {
-                    String backgroundTintColorAttrValue = attrs.getAttributeValue(i);
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), backgroundTintColorAttrValue);
-                    if (color != null) {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                            view.setBackgroundTintList(ColorStateList.valueOf(color));
-                        } else {
-                            view.getBackground()
-                                    .setColorFilter(color, PorterDuff.Mode.SRC_IN);
-                        }
-                    }
-                }
-                //endregion
-                //region backgroundTint
-                if (attributeNameResource == android.support.v7.appcompat.R.attr.backgroundTint) {
-                    String backgroundTintColorAttrValueApp = attrs.getAttributeValue(i);
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), backgroundTintColorAttrValueApp);
-                    if (color != null) {
-                        ViewCompat.setBackgroundTintList(view, ColorStateList.valueOf(color));
-                    }
+                ColorAttributeApplier.apply(scope, mRuntimeAttributeColorResolver, view, attributeNameResource, colorAttribute);
+                if (bindingCount < mBindingAttributes.length) {
+                    mBindingAttributes[bindingCount] = attributeNameResource;
+                    mBindingColorAttributes[bindingCount] = colorAttribute;
+                    bindingCount++;
                 }
-                //endregion
-                //region textColorHighlight
-                if (attributeNameResource == android.R.attr.textColorHighlight) {
-                    String textColorHighlightAttrValueApp = attrs.getAttributeValue(i);
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), textColorHighlightAttrValueApp);
-                    if (view instanceof TextView && color != null) {
-                        TextView textView = (TextView) view;
-                        textView.setHighlightColor(color);
-                    }
-                }
-                //endregion
-                //region tint
-                if (attributeNameResource == android.R.attr.tint) {
-                    String tintAttrValueApp = attrs.getAttributeValue(i);
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), tintAttrValueApp);
-                    if (view instanceof ImageView && color != null) {
-                        ImageView imageView = (ImageView) view;
-                        ImageViewCompat.setImageTintList(imageView, ColorStateList.valueOf(color));
-                    }
-                }
-                //endregion
-                //region titleTextColor
-                if (attributeNameResource == android.support.v7.appcompat.R.attr.titleTextColor) {
-                    String toolbarTitleTextColorValue = attrs.getAttributeValue(i);
-                    Integer color = mRuntimeAttributeColorResolver.getColorByAttrValue(getContext(), toolbarTitleTextColorValue);
-                    if (view instanceof Toolbar && color != null) {
-                        Toolbar toolbar = (Toolbar) view;
-                        toolbar.setTitleTextColor(color);
-                    }
-                }
-                //endregion
             }
-
-        }
-
-        /**
-         * Extract int value from its string representation
-         */
-        @Nullable
-        private Integer attrValueToInt(String attrValue) {
-            if (attrValue == null || attrValue.length() <= 1) {
-                return null;
+            if (bindingCount > 0) {
+                new ViewColorBindings(mBindingAttributes, mBindingColorAttributes, bindingCount).attach(view, mGeneration);
+                mProcessedViewCount++;
+                RainbowDebug.onViewProcessed();
             }
-            return StringsKt.toIntOrNull(attrValue.substring(1));
         }
 
         @Override
@@ -327,30 +465,111 @@ public final class RainbowContextWrapper
             return view;
         }
 
+        /**
+         * Factories return null for the views they do not replace. {@link LayoutInflater} then creates the ones referenced
+         * by their fully qualified name with {@link #createView(String, String, AttributeSet)}, which never reaches
+         * {@link #onViewCreated(AttributeSet, View)}, i.e. an AppCompatButton with app:backgroundTint behind the AppCompat
+         * factory. Create those here, in the context the factory was given, so that their attributes are applied.
+         * A view constructor that throws is reported with an {@link InflateException} right away instead of running again.
+         *
+         * @return null to leave the view to {@link LayoutInflater}
+         */
+        @Nullable
+        private View createQualifiedView(String name, Context context, AttributeSet attrs) {
+            if (name.indexOf('.') == -1 || getFilter() != null) {
+                return null;
+            }
+            Constructor<? extends View> constructor;
+            try {
+                constructor = getConstructor(name, context.getClassLoader());
+            } catch (ClassNotFoundException | NoSuchMethodException | ClassCastException e) {
+                //LayoutInflater reports the failure with its usual message
+                return null;
+            }
+            if (constructor == null) {
+                return null;
+            }
+            try {
+                return constructor.newInstance(context, attrs);
+            } catch (InvocationTargetException e) {
+                //the constructor ran and failed, letting LayoutInflater retry would run it again
+                throw new InflateException(attrs.getPositionDescription() + ": Error inflating class " + name, e.getCause());
+            } catch (InstantiationException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return null for a {@link ViewStub}, it needs the inflater set up by LayoutInflater
+         */
+        @Nullable
+        private static Constructor<? extends View> getConstructor(String name, ClassLoader classLoader) throws
+                ClassNotFoundException, NoSuchMethodException {
+            synchronized (sConstructorMaps) {
+                Map<String, Constructor<? extends View>> constructorMap = sConstructorMaps.get(classLoader);
+                if (constructorMap == null) {
+                    constructorMap = new HashMap<>();
+                    sConstructorMaps.put(classLoader, constructorMap);
+                }
+                Constructor<? extends View> constructor = constructorMap.get(name);
+                if (constructor == null) {
+                    Class<? extends View> clazz = Class.forName(name, false, classLoader).asSubclass(View.class);
+                    if (ViewStub.class.isAssignableFrom(clazz)) {
+                        return null;
+                    }
+                    constructor = clazz.getConstructor(sConstructorSignature);
+                    constructor.setAccessible(true);
+                    constructorMap.put(name, constructor);
+                }
+                return constructor;
+            }
+        }
+
+        /**
+         * @return the inflater the views created by a factory wrapper of <code>owner</code> belong to
+         */
+        @NonNull
+        private static RainbowLayoutInflater getInflating(@NonNull RainbowLayoutInflater owner) {
+            RainbowLayoutInflater inflating = sInflating.get();
+            return inflating != null ? inflating : owner;
+        }
+
         /**
          * Wraps {@link android.view.LayoutInflater.Factory2} so that views created by the original factory will still reach
-         * {@link RainbowLayoutInflater#onViewCreated(AttributeSet, View)}
+         * {@link RainbowLayoutInflater#onViewCreated(AttributeSet, View)}.
+         * Cloned inflaters share it, the views go to the one that is inflating, not to the one it was set on.
          */
-        private class Factory2Wrapper
+        private static final class Factory2Wrapper
                 implements Factory2 {
 
             private final Factory2 mFactory2;
 
-            Factory2Wrapper(Factory2 factory2) {
+            private final RainbowLayoutInflater mOwner;
+
+            Factory2Wrapper(Factory2 factory2, RainbowLayoutInflater owner) {
                 mFactory2 = factory2;
+                mOwner = owner;
             }
 
             @Override
             public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
+                RainbowLayoutInflater inflater = getInflating(mOwner);
                 View view = mFactory2.onCreateView(parent, name, context, attrs);
-                onViewCreated(attrs, view);
+                if (view == null) {
+                    view = inflater.createQualifiedView(name, context, attrs);
+                }
+                inflater.onViewCreated(attrs, view);
                 return view;
             }
 
             @Override
             public View onCreateView(String name, Context context, AttributeSet attrs) {
+                RainbowLayoutInflater inflater = getInflating(mOwner);
                 View view = mFactory2.onCreateView(name, context, attrs);
-                onViewCreated(attrs, view);
+                if (view == null) {
+                    view = inflater.createQualifiedView(name, context, attrs);
+                }
+                inflater.onViewCreated(attrs, view);
                 return view;
             }
         }
@@ -360,21 +579,64 @@ public final class RainbowContextWrapper
          * Wraps {@link android.view.LayoutInflater.Factory} so that views created by the original factory will still reach
          * {@link RainbowLayoutInflater#onViewCreated(AttributeSet, View)}
          */
-        private class FactoryWrapper
+        private static final class FactoryWrapper
                 implements Factory {
 
             private final Factory mFactory;
 
-            FactoryWrapper(Factory factory) {
+            private final RainbowLayoutInflater mOwner;
+
+            FactoryWrapper(Factory factory, RainbowLayoutInflater owner) {
                 mFactory = factory;
+                mOwner = owner;
             }
 
             @Override
             public View onCreateView(String name, Context context, AttributeSet attrs) {
+                RainbowLayoutInflater inflater = getInflating(mOwner);
                 View view = mFactory.onCreateView(name, context, attrs);
-                onViewCreated(attrs, view);
+                if (view == null) {
+                    view = inflater.createQualifiedView(name, context, attrs);
+                }
+                inflater.onViewCreated(attrs, view);
                 return view;
             }
         }
     }
+
+    /**
+     * Applies the colors of a retheme that ran while an inflated hierarchy was detached
+     */
+    private static final class ApplyPendingColorsOnAttach
+            implements View.OnAttachStateChangeListener {
+
+        private final RuntimeAttributeColorResolver mResolver;
+
+        private final ViewColorBindings.Generation mGeneration;
+
+        /**
+         * The value of {@link #mGeneration} the hierarchy was last brought up to date with
+         */
+        private int mAppliedGeneration;
+
+        ApplyPendingColorsOnAttach(@NonNull RuntimeAttributeColorResolver resolver, @NonNull ViewColorBindings.Generation generation) {
+            mResolver = resolver;
+            mGeneration = generation;
+            mAppliedGeneration = generation.get();
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View view) {
+            //only a retheme of the wrapper that inflated the hierarchy makes it stale
+            int generation = mGeneration.get();
+            if (generation != mAppliedGeneration) {
+                mAppliedGeneration = generation;
+                applyPendingColors(mResolver, mGeneration, view);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View view) {
+        }
+    }
 }
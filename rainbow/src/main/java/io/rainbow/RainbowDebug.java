@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Diagnostics for Rainbow's internal state. Meant for debug builds and tests, i.e. to check that cache sizes stay flat
+ * during a long session.
+ */
+public final class RainbowDebug {
+
+    /**
+     * Implemented by every cache Rainbow keeps so that it can be reported by {@link #getCacheStats()}
+     */
+    interface TrackedCache {
+
+        @NonNull
+        String getName();
+
+        int size();
+
+        int maxSize();
+
+        long evictionCount();
+    }
+
+    /**
+     * Weak so that reporting never keeps a cache (and the resolver owning it) alive, collected caches drop out by themselves
+     */
+    private static final Set<TrackedCache> sCaches = Collections.newSetFromMap(new WeakHashMap<TrackedCache, Boolean>());
+
+    private static final AtomicLong sProcessedViewCount = new AtomicLong();
+
+    private static final AtomicLong sReprocessedViewCount = new AtomicLong();
+
+    private RainbowDebug() {
+    }
+
+    static void register(@NonNull TrackedCache cache) {
+        synchronized (sCaches) {
+            sCaches.add(cache);
+        }
+    }
+
+    static void onViewProcessed() {
+        sProcessedViewCount.incrementAndGet();
+    }
+
+    static void onViewProcessedAgain() {
+        sReprocessedViewCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of inflated views Rainbow applied colors to
+     */
+    public static long getProcessedViewCount() {
+        return sProcessedViewCount.get();
+    }
+
+    /**
+     * @return the number of times an inflated view that already had its colors applied reached Rainbow again and was skipped.
+     * Stays 0 unless several inflaters or factories in the chain see the same view.
+     */
+    public static long getReprocessedViewCount() {
+        return sReprocessedViewCount.get();
+    }
+
+    public static void resetViewCounts() {
+        sProcessedViewCount.set(0);
+        sReprocessedViewCount.set(0);
+    }
+
+    /**
+     * @return a snapshot of every live cache
+     */
+    @NonNull
+    public static List<CacheStats> getCacheStats() {
+        List<CacheStats> stats = new ArrayList<>();
+        synchronized (sCaches) {
+            for (TrackedCache cache : sCaches) {
+                stats.add(new CacheStats(cache.getName(), cache.size(), cache.maxSize(), cache.evictionCount()));
+            }
+        }
+        return stats;
+    }
+
+    public static final class CacheStats {
+
+        @NonNull
+        public final String name;
+
+        public final int size;
+
+        public final int maxSize;
+
+        public final long evictionCount;
+
+        CacheStats(@NonNull String name, int size, int maxSize, long evictionCount) {
+            this.name = name;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        public String toString() {
+            return name + " size=" + size + "/" + maxSize + " evictions=" + evictionCount;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.res.ColorStateList;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Colors resolved by the {@link RuntimeAttributeColorResolver}s that share a retain key, kept per attribute and
+ * {@link ConfigurationKey}. Lives in the library rather than in a resolver so that a resolver created again by a
+ * recreated Activity picks up the colors of the previous one.
+ * <p>
+ * Lookups do not lock, every change publishes a new copy of the table. Changes are rare: a color is stored once per
+ * attribute and configuration.
+ * </p>
+ */
+final class RetainedColors
+        implements RainbowDebug.TrackedCache {
+
+    /**
+     * More attributes than that starts over instead of growing
+     */
+    private static final int MAX_ATTRIBUTES = 512;
+
+    /**
+     * Configurations kept per attribute, the most recently resolved ones, i.e. light and dark mode
+     */
+    private static final int MAX_CONFIGURATIONS = 4;
+
+    /**
+     * Weak keys, so retain keys should be constants, i.e. a string literal or a class
+     */
+    private static final Map<Object, RetainedColors> sInstances = new WeakHashMap<>();
+
+    private final String mName;
+
+    private volatile SparseArray<Entry> mColors = new SparseArray<>();
+
+    private volatile SparseArray<Entry> mColorStateLists = new SparseArray<>();
+
+    private int mSize;
+
+    private long mEvictionCount;
+
+    private RetainedColors(@NonNull String name) {
+        mName = name;
+        RainbowDebug.register(this);
+    }
+
+    @NonNull
+    static RetainedColors forKey(@NonNull Object retainKey) {
+        synchronized (sInstances) {
+            RetainedColors retainedColors = sInstances.get(retainKey);
+            if (retainedColors == null) {
+                retainedColors = new RetainedColors("retained colors of " + retainKey);
+                sInstances.put(retainKey, retainedColors);
+            }
+            return retainedColors;
+        }
+    }
+
+    /**
+     * @return the color as an unsigned int or {@link RuntimeAttributeColorResolver#NO_COLOR}
+     */
+    long getColor(int colorAttrValue, @NonNull ConfigurationKey key) {
+        Entry entry = find(mColors, colorAttrValue, key);
+        return entry != null ? entry.mColor & 0xFFFFFFFFL : RuntimeAttributeColorResolver.NO_COLOR;
+    }
+
+    @Nullable
+    ColorStateList getColorStateList(int colorAttrValue, @NonNull ConfigurationKey key) {
+        Entry entry = find(mColorStateLists, colorAttrValue, key);
+        return entry != null ? entry.mColorStateList : null;
+    }
+
+    synchronized void putColor(int colorAttrValue, @NonNull ConfigurationKey key, int color) {
+        mColors = put(mColors, colorAttrValue, new Entry(key, color, null, null));
+    }
+
+    synchronized void putColorStateList(int colorAttrValue, @NonNull ConfigurationKey key, @NonNull ColorStateList colorStateList) {
+        mColorStateLists = put(mColorStateLists, colorAttrValue, new Entry(key, 0, colorStateList, null));
+    }
+
+    synchronized void remove(int colorAttrValue) {
+        mColors = remove(mColors, colorAttrValue);
+        mColorStateLists = remove(mColorStateLists, colorAttrValue);
+    }
+
+    synchronized void clear() {
+        mColors = new SparseArray<>();
+        mColorStateLists = new SparseArray<>();
+        mSize = 0;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public int maxSize() {
+        return 2 * MAX_ATTRIBUTES * MAX_CONFIGURATIONS;
+    }
+
+    @Override
+    public synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Nullable
+    private static Entry find(@NonNull SparseArray<Entry> table, int colorAttrValue, @NonNull ConfigurationKey key) {
+        for (Entry entry = table.get(colorAttrValue); entry != null; entry = entry.mNext) {
+            if (entry.mKey.equals(key)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of <code>table</code> where <code>entry</code> is the most recent configuration of <code>colorAttrValue</code>
+     */
+    @NonNull
+    private SparseArray<Entry> put(@NonNull SparseArray<Entry> table, int colorAttrValue, @NonNull Entry entry) {
+        Entry previous = table.get(colorAttrValue);
+        SparseArray<Entry> copy;
+        if (previous == null && table.size() >= MAX_ATTRIBUTES) {
+            int evicted = countEntries(table);
+            mSize -= evicted;
+            mEvictionCount += evicted;
+            copy = new SparseArray<>();
+        } else {
+            copy = table.clone();
+        }
+        Entry[] chain = new Entry[MAX_CONFIGURATIONS];
+        int length = 0;
+        chain[length++] = entry;
+        mSize++;
+        for (Entry current = previous; current != null; current = current.mNext) {
+            if (current.mKey.equals(entry.mKey)) {
+                mSize--;
+            } else if (length == MAX_CONFIGURATIONS) {
+                mSize--;
+                mEvictionCount++;
+            } else {
+                chain[length++] = current;
+            }
+        }
+        Entry head = null;
+        for (int i = length - 1; i >= 0; i--) {
+            head = chain[i].withNext(head);
+        }
+        copy.put(colorAttrValue, head);
+        return copy;
+    }
+
+    @NonNull
+    private SparseArray<Entry> remove(@NonNull SparseArray<Entry> table, int colorAttrValue) {
+        Entry removed = table.get(colorAttrValue);
+        if (removed == null) {
+            return table;
+        }
+        for (Entry current = removed; current != null; current = current.mNext) {
+            mSize--;
+        }
+        SparseArray<Entry> copy = table.clone();
+        copy.remove(colorAttrValue);
+        return copy;
+    }
+
+    private static int countEntries(@NonNull SparseArray<Entry> table) {
+        int count = 0;
+        for (int i = 0; i < table.size(); i++) {
+            for (Entry current = table.valueAt(i); current != null; current = current.mNext) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One configuration of an attribute, immutable so that readers never see a half built chain
+     */
+    private static final class Entry {
+
+        private final ConfigurationKey mKey;
+
+        private final int mColor;
+
+        @Nullable
+        private final ColorStateList mColorStateList;
+
+        @Nullable
+        private final Entry mNext;
+
+        Entry(@NonNull ConfigurationKey key, int color, @Nullable ColorStateList colorStateList, @Nullable Entry next) {
+            mKey = key;
+            mColor = color;
+            mColorStateList = colorStateList;
+            mNext = next;
+        }
+
+        @NonNull
+        Entry withNext(@Nullable Entry next) {
+            return next == mNext ? this : new Entry(mKey, mColor, mColorStateList, next);
+        }
+    }
+}
@@ -25,6 +25,7 @@
 package io.rainbow;
 
 import android.content.Context;
+import android.content.pm.ActivityInfo;
 import android.content.res.ColorStateList;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -33,26 +34,108 @@ import android.util.SparseArray;
 import android.view.LayoutInflater;
 
 import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import kotlin.text.StringsKt;
 
+/**
+ * Supplies the runtime colors that {@link RainbowContextWrapper} applies to inflated views.
+ * <p>
+ * By default the resolver is asked for every color it applies. Resolvers whose colors only depend on the configuration
+ * can opt in to retaining them with {@link #RuntimeAttributeColorResolver(Class, Object)}: a color is then resolved
+ * once per attribute and per value of the configuration bits returned by {@link #getConfigurationDependencies(String)},
+ * and survives Activity recreation even when every Activity creates its own resolver.
+ * </p>
+ */
 public abstract class RuntimeAttributeColorResolver {
 
+    /**
+     * Returned by the internal lookups when there is no color, resolved colors are returned as unsigned ints
+     */
+    static final long NO_COLOR = -1L;
+
+    /**
+     * The configuration bits color resources are commonly split on
+     */
+    private static final int DEFAULT_CONFIGURATION_DEPENDENCIES =
+            ActivityInfo.CONFIG_UI_MODE | ActivityInfo.CONFIG_LOCALE | ActivityInfo.CONFIG_DENSITY;
+
+    /**
+     * R.attr classes only hold constants, reflecting over them once per process is enough.
+     * Weak keys let the map go together with the class loader.
+     */
+    private static final Map<Class, SparseArray<String>> sAttrValueToNameMaps = new WeakHashMap<>();
+
+    private static final SparseArray<String> EMPTY_ATTR_VALUE_TO_NAME_MAP = new SparseArray<>(0);
+
     private final SparseArray<String> mAttrValueToNameMap;
 
+    /**
+     * Null unless the resolver opted in to retaining colors
+     */
+    @Nullable
+    private final RetainedColors mRetainedColors;
+
     /**
      * @param rAttrClass The attribute class to use to resolve attribute values. i.e. R.attr.class
      */
     public RuntimeAttributeColorResolver(Class rAttrClass) {
-        Field[] declaredFields = rAttrClass.getDeclaredFields();
-        mAttrValueToNameMap = new SparseArray<>(declaredFields.length);
-        for (Field field : declaredFields) {
-            try {
-                int attrValue = field.getInt(null);
-                String attrName = field.getName();
-                mAttrValueToNameMap.put(attrValue, attrName);
-            } catch (Exception ignored) {
+        this(getAttrValueToNameMap(rAttrClass), null);
+    }
+
+    /**
+     * Retain resolved colors instead of asking the resolver for every color. Only use it when the colors returned for
+     * an attribute depend on nothing but the configuration bits of {@link #getConfigurationDependencies(String)},
+     * the context passed to the resolver is otherwise ignored once a color was retained. Null colors are not retained.
+     *
+     * @param rAttrClass The attribute class to use to resolve attribute values. i.e. R.attr.class
+     * @param retainKey  identifies the palette, resolvers created with an equal key share their retained colors.
+     *                   Use a constant, i.e. a string literal or a class, retained colors go once the key is collected.
+     */
+    public RuntimeAttributeColorResolver(Class rAttrClass, @NonNull Object retainKey) {
+        this(getAttrValueToNameMap(rAttrClass), RetainedColors.forKey(retainKey));
+    }
+
+    /**
+     * For resolvers that override every lookup by id and delegate it, i.e. {@link ChainedColorResolver}.
+     * Reflects over no R.attr class and retains nothing, so creating one is free.
+     */
+    RuntimeAttributeColorResolver() {
+        this(EMPTY_ATTR_VALUE_TO_NAME_MAP, null);
+    }
+
+    RuntimeAttributeColorResolver(@NonNull SparseArray<String> attrValueToNameMap, @Nullable RetainedColors retainedColors) {
+        mAttrValueToNameMap = attrValueToNameMap;
+        mRetainedColors = retainedColors;
+    }
+
+    /**
+     * @return attribute value to attribute name of the R.attr class, shared, must not be modified
+     */
+    @NonNull
+    final SparseArray<String> getAttrValueToNameMap() {
+        return mAttrValueToNameMap;
+    }
+
+    @NonNull
+    private static SparseArray<String> getAttrValueToNameMap(Class rAttrClass) {
+        synchronized (sAttrValueToNameMaps) {
+            SparseArray<String> attrValueToNameMap = sAttrValueToNameMaps.get(rAttrClass);
+            if (attrValueToNameMap == null) {
+                Field[] declaredFields = rAttrClass.getDeclaredFields();
+                attrValueToNameMap = new SparseArray<>(declaredFields.length);
+                for (Field field : declaredFields) {
+                    try {
+                        int attrValue = field.getInt(null);
+                        String attrName = field.getName();
+                        attrValueToNameMap.put(attrValue, attrName);
+                    } catch (Exception ignored) {
+                    }
+                }
+                sAttrValueToNameMaps.put(rAttrClass, attrValueToNameMap);
             }
+            return attrValueToNameMap;
         }
     }
 
@@ -73,34 +156,100 @@ public abstract class RuntimeAttributeColorResolver {
     public abstract @Nullable
     Integer getColorByAttrName(@NonNull Context context, @Nullable String attributeName);
 
-    ColorStateList getColorStateListByAttrValue(@NonNull Context context, String colorAttrStringValue) {
-        String colorAttrName = getAttrName(colorAttrStringValue);
+    /**
+     * Only used by resolvers that retain colors. Override to declare which configuration bits the color of
+     * <code>attributeName</code> depends on, it is resolved again for every new combination of their values.
+     * Return 0 for colors that do not depend on the configuration at all.
+     *
+     * @return a combination of the {@link ActivityInfo} <code>CONFIG_*</code> flags.
+     * By default {@link ActivityInfo#CONFIG_UI_MODE}, {@link ActivityInfo#CONFIG_LOCALE} and {@link ActivityInfo#CONFIG_DENSITY}
+     */
+    protected int getConfigurationDependencies(@NonNull String attributeName) {
+        return DEFAULT_CONFIGURATION_DEPENDENCIES;
+    }
+
+    /**
+     * Drop every retained color, call it when the values returned by the resolver change.
+     * Affects every resolver sharing the retain key. Views that were already inflated keep their colors.
+     */
+    public void invalidate() {
+        if (mRetainedColors != null) {
+            mRetainedColors.clear();
+        }
+    }
+
+    /**
+     * Drop the retained colors of a single attribute, call it when only the value of <code>attributeName</code> changed.
+     */
+    public void invalidate(@NonNull String attributeName) {
+        if (mRetainedColors == null) {
+            return;
+        }
+        for (int i = 0; i < mAttrValueToNameMap.size(); i++) {
+            if (attributeName.equals(mAttrValueToNameMap.valueAt(i))) {
+                mRetainedColors.remove(mAttrValueToNameMap.keyAt(i));
+            }
+        }
+    }
+
+    @Nullable
+    ColorStateList getColorStateListByAttrId(@NonNull ColorScope scope, int colorAttrValue) {
+        String colorAttrName = mAttrValueToNameMap.get(colorAttrValue);
         if (colorAttrName == null) {
             return null;
         }
-        return getColorStateListByAttrName(context, colorAttrName);
+        RetainedColors retainedColors = mRetainedColors;
+        if (retainedColors == null) {
+            return getColorStateListByAttrName(scope.getContext(), colorAttrName);
+        }
+        ConfigurationKey key = scope.getConfigurationKey(getConfigurationDependencies(colorAttrName));
+        ColorStateList colorStateList = retainedColors.getColorStateList(colorAttrValue, key);
+        if (colorStateList == null) {
+            colorStateList = getColorStateListByAttrName(scope.getContext(), colorAttrName);
+            if (colorStateList != null) {
+                retainedColors.putColorStateList(colorAttrValue, key, colorStateList);
+            }
+        }
+        return colorStateList;
     }
 
-    Integer getColorByAttrValue(@NonNull Context context, @Nullable String colorAttrStringValue) {
-        String colorAttrName = getAttrName(colorAttrStringValue);
+    /**
+     * @return the color as an unsigned int or {@link #NO_COLOR}
+     */
+    long getColorByAttrId(@NonNull ColorScope scope, int colorAttrValue) {
+        String colorAttrName = mAttrValueToNameMap.get(colorAttrValue);
         if (colorAttrName == null) {
-            return null;
+            return NO_COLOR;
         }
-        return getColorByAttrName(context, colorAttrName);
+        RetainedColors retainedColors = mRetainedColors;
+        ConfigurationKey key = null;
+        if (retainedColors != null) {
+            key = scope.getConfigurationKey(getConfigurationDependencies(colorAttrName));
+            long color = retainedColors.getColor(colorAttrValue, key);
+            if (color != NO_COLOR) {
+                return color;
+            }
+        }
+        Integer color = getColorByAttrName(scope.getContext(), colorAttrName);
+        if (color == null) {
+            return NO_COLOR;
+        }
+        if (retainedColors != null) {
+            retainedColors.putColor(colorAttrValue, key, color);
+        }
+        return color & 0xFFFFFFFFL;
     }
 
+    /**
+     * Extract the referenced attribute from its string representation, i.e. "?2130903196".
+     * Anything else, i.e. a resource reference such as "@2131034112", is not an attribute and returns null.
+     */
     @Nullable
-    private String getAttrName(@Nullable String colorAttrStringValue) {
-        String colorAttrName = null;
-        if (!TextUtils.isEmpty(colorAttrStringValue)) {
-            Integer colorAttrValue;
-            colorAttrValue = StringsKt.toIntOrNull(colorAttrStringValue.substring(1));
-            colorAttrName = colorAttrValue != null ? mAttrValueToNameMap.get(colorAttrValue) : null;
-        }
-        if (colorAttrName == null) {
+    static Integer attrValueToInt(@Nullable String colorAttrStringValue) {
+        if (TextUtils.isEmpty(colorAttrStringValue) || colorAttrStringValue.length() <= 1 || colorAttrStringValue.charAt(0) != '?') {
             return null;
         }
-        return colorAttrName;
+        return StringsKt.toIntOrNull(colorAttrStringValue.substring(1));
     }
 
 }
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.app.Activity;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.support.annotation.AttrRes;
+import android.support.annotation.NonNull;
+import android.util.SparseLongArray;
+import android.util.TypedValue;
+
+/**
+ * Caches colors resolved from theme attributes, the fallback used when {@link RuntimeAttributeColorResolver} has no
+ * value for an attribute.
+ * <p>
+ * Colors are kept per {@link Resources.Theme} instance and are dropped when the configuration they were resolved with
+ * changes. {@link ColorScope} checks that once per inflation or traversal, a lookup is then a read of a primitive
+ * table. Themes mutated in place through {@link Resources.Theme#applyStyle(int, boolean)} have to be reported with
+ * {@link #invalidate(Resources.Theme)}.
+ * </p>
+ */
+final class ThemeColorCache {
+
+    private static final int MAX_THEMES = 16;
+
+    private static final long NOT_CACHED = -2L;
+
+    private static final LifecycleScopedCache.ScopeMatcher<Resources.Theme> THEME_SCOPE =
+            new LifecycleScopedCache.ScopeMatcher<Resources.Theme>() {
+                @Override
+                public boolean belongsTo(@NonNull Resources.Theme key, @NonNull Activity activity) {
+                    return key == activity.getTheme();
+                }
+            };
+
+    private static final LifecycleScopedCache<Resources.Theme, ThemeColors> sThemeColors =
+            new LifecycleScopedCache<>("theme attribute colors", MAX_THEMES, THEME_SCOPE);
+
+    private ThemeColorCache() {
+    }
+
+    /**
+     * @return the colors of <code>theme</code>, valid for <code>configuration</code>
+     */
+    @NonNull
+    static ThemeColors get(@NonNull Resources.Theme theme, @NonNull Configuration configuration) {
+        ThemeColors themeColors = sThemeColors.get(theme);
+        if (themeColors == null || themeColors.mConfiguration.diff(configuration) != 0) {
+            themeColors = new ThemeColors(configuration);
+            sThemeColors.put(theme, themeColors);
+        }
+        return themeColors;
+    }
+
+    static void invalidate(@NonNull Resources.Theme theme) {
+        sThemeColors.remove(theme);
+    }
+
+    static final class ThemeColors {
+
+        private final Configuration mConfiguration;
+
+        /**
+         * Copied on write so that lookups do not lock. Values are unsigned colors,
+         * {@link RuntimeAttributeColorResolver#NO_COLOR} for attributes that are missing or not a plain color,
+         * i.e. a color state list
+         */
+        private volatile SparseLongArray mColors = new SparseLongArray();
+
+        /**
+         * Guarded by this
+         */
+        private final TypedValue mTypedValue = new TypedValue();
+
+        private ThemeColors(@NonNull Configuration configuration) {
+            mConfiguration = new Configuration(configuration);
+        }
+
+        /**
+         * @param theme the theme these colors belong to
+         * @return the color as an unsigned int or {@link RuntimeAttributeColorResolver#NO_COLOR}
+         */
+        long getColor(@NonNull Resources.Theme theme, @AttrRes int attribute) {
+            long color = mColors.get(attribute, NOT_CACHED);
+            return color != NOT_CACHED ? color : resolve(theme, attribute);
+        }
+
+        private synchronized long resolve(@NonNull Resources.Theme theme, @AttrRes int attribute) {
+            long color = mColors.get(attribute, NOT_CACHED);
+            if (color != NOT_CACHED) {
+                return color;
+            }
+            color = RuntimeAttributeColorResolver.NO_COLOR;
+            if (theme.resolveAttribute(attribute, mTypedValue, true)
+                    && mTypedValue.type >= TypedValue.TYPE_FIRST_COLOR_INT
+                    && mTypedValue.type <= TypedValue.TYPE_LAST_COLOR_INT) {
+                color = mTypedValue.data & 0xFFFFFFFFL;
+            }
+            SparseLongArray colors = mColors.clone();
+            colors.put(attribute, color);
+            mColors = colors;
+            return color;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.support.annotation.AttrRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Binds view attributes to the color attributes they take their color from, i.e. {@link android.R.attr#textColor}
+ * to R.attr.colorAccent.
+ * <p>
+ * Inflated views keep the bindings they were inflated with on the view itself (see {@link R.id#rainbow_color_bindings})
+ * so that they can be themed again after the colors of the resolver change. Views created in code get theirs through
+ * {@link RainbowContextWrapper#applyColors(View, ViewColorBindings)}. Instances are immutable and can be shared by any number of views.
+ * </p>
+ */
+public final class ViewColorBindings {
+
+    /**
+     * View attributes, i.e. {@link android.R.attr#textColor}
+     */
+    private final int[] mAttributes;
+
+    /**
+     * The color attribute each of {@link #mAttributes} references
+     */
+    private final int[] mColorAttributes;
+
+    ViewColorBindings(@NonNull int[] attributes, @NonNull int[] colorAttributes, int count) {
+        mAttributes = Arrays.copyOf(attributes, count);
+        mColorAttributes = Arrays.copyOf(colorAttributes, count);
+    }
+
+    /**
+     * @param attributeColorAttributePairs a view attribute followed by the color attribute it is bound to, repeated,
+     *                                     i.e. <code>of(android.R.attr.textColor, R.attr.colorAccent, android.R.attr.background, R.attr.colorPrimary)</code>.
+     *                                     View attributes must be supported, see {@link RainbowContextWrapper}
+     */
+    @NonNull
+    public static ViewColorBindings of(@AttrRes int... attributeColorAttributePairs) {
+        if (attributeColorAttributePairs.length % 2 != 0) {
+            throw new IllegalArgumentException("expected pairs of attribute and color attribute");
+        }
+        int count = attributeColorAttributePairs.length / 2;
+        int[] attributes = new int[count];
+        int[] colorAttributes = new int[count];
+        for (int i = 0; i < count; i++) {
+            attributes[i] = attributeColorAttributePairs[2 * i];
+            colorAttributes[i] = attributeColorAttributePairs[2 * i + 1];
+            if (!ColorAttributeApplier.isSupported(attributes[i])) {
+                throw new IllegalArgumentException("attribute " + attributes[i] + " is not supported");
+            }
+        }
+        return new ViewColorBindings(attributes, colorAttributes, count);
+    }
+
+    @Nullable
+    static ViewColorBindings get(@NonNull View view) {
+        Applied applied = getApplied(view);
+        return applied != null ? applied.mBindings : null;
+    }
+
+    /**
+     * Keep the bindings on <code>view</code>, its colors were just applied with the current colors of <code>generation</code>
+     */
+    void attach(@NonNull View view, @NonNull Generation generation) {
+        Applied applied = getApplied(view);
+        if (applied == null) {
+            applied = new Applied();
+            view.setTag(R.id.rainbow_color_bindings, applied);
+        }
+        applied.mBindings = this;
+        markApplied(applied, generation);
+    }
+
+    /**
+     * @return true if <code>view</code> has bindings that were not applied in the current value of <code>generation</code>
+     */
+    static boolean isStale(@NonNull View view, @NonNull Generation generation) {
+        Applied applied = getApplied(view);
+        return applied != null && (applied.mGeneration != generation || applied.mGenerationValue != generation.get());
+    }
+
+    static void markApplied(@NonNull View view, @NonNull Generation generation) {
+        Applied applied = getApplied(view);
+        if (applied != null) {
+            markApplied(applied, generation);
+        }
+    }
+
+    private static void markApplied(@NonNull Applied applied, @NonNull Generation generation) {
+        applied.mGeneration = generation;
+        applied.mGenerationValue = generation.get();
+    }
+
+    @Nullable
+    private static Applied getApplied(@NonNull View view) {
+        Object applied = view.getTag(R.id.rainbow_color_bindings);
+        return applied instanceof Applied ? (Applied) applied : null;
+    }
+
+    /**
+     * @return bindings holding both, <code>overrides</code> wins for attributes bound by both
+     */
+    @NonNull
+    ViewColorBindings merge(@NonNull ViewColorBindings overrides) {
+        int[] attributes = new int[mAttributes.length + overrides.mAttributes.length];
+        int[] colorAttributes = new int[attributes.length];
+        int count = 0;
+        for (int i = 0; i < mAttributes.length; i++) {
+            if (!overrides.binds(mAttributes[i])) {
+                attributes[count] = mAttributes[i];
+                colorAttributes[count] = mColorAttributes[i];
+                count++;
+            }
+        }
+        System.arraycopy(overrides.mAttributes, 0, attributes, count, overrides.mAttributes.length);
+        System.arraycopy(overrides.mColorAttributes, 0, colorAttributes, count, overrides.mColorAttributes.length);
+        return new ViewColorBindings(attributes, colorAttributes, count + overrides.mAttributes.length);
+    }
+
+    /**
+     * @return true if every binding of <code>other</code> is one of these, merging it would change nothing
+     */
+    boolean contains(@NonNull ViewColorBindings other) {
+        for (int i = 0; i < other.mAttributes.length; i++) {
+            int index = indexOf(other.mAttributes[i]);
+            if (index < 0 || mColorAttributes[index] != other.mColorAttributes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean binds(@AttrRes int attribute) {
+        return indexOf(attribute) >= 0;
+    }
+
+    private int indexOf(@AttrRes int attribute) {
+        for (int i = 0; i < mAttributes.length; i++) {
+            if (mAttributes[i] == attribute) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resolves the colors in the context of <code>view</code>
+     */
+    void apply(@NonNull ColorScope scope, @NonNull RuntimeAttributeColorResolver resolver, @NonNull View view) {
+        scope.setContext(view.getContext());
+        for (int i = 0; i < mAttributes.length; i++) {
+            ColorAttributeApplier.apply(scope, resolver, view, mAttributes[i], mColorAttributes[i]);
+        }
+    }
+
+    /**
+     * Counts the rethemes of a {@link RainbowContextWrapper}. A retheme only marks the views themed by its own wrapper
+     * as stale, views of other wrappers, i.e. of other activities, are left alone.
+     */
+    static final class Generation {
+
+        private volatile int mValue;
+
+        int get() {
+            return mValue;
+        }
+
+        /**
+         * Mark the colors of every view themed in this generation as stale, called on the UI thread when a retheme starts
+         */
+        void next() {
+            mValue++;
+        }
+    }
+
+    /**
+     * The tag of a view: its bindings and the generation they were last applied in
+     */
+    private static final class Applied {
+
+        private ViewColorBindings mBindings;
+
+        private Generation mGeneration;
+
+        private int mGenerationValue;
+    }
+}
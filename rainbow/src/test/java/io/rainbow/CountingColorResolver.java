@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the colors in {@link #mColors} and counts how often it was asked for them
+ */
+final class CountingColorResolver
+        extends RuntimeAttributeColorResolver {
+
+    final Map<String, Integer> mColors = new HashMap<>();
+
+    int mColorCalls;
+
+    int mColorStateListCalls;
+
+    @Nullable
+    Context mLastContext;
+
+    /**
+     * Retains nothing, asked for every color
+     */
+    CountingColorResolver(@NonNull Class rAttrClass) {
+        super(rAttrClass);
+    }
+
+    /**
+     * @param retainKey use a new object per test so that tests do not share retained colors
+     */
+    CountingColorResolver(@NonNull Class rAttrClass, @NonNull Object retainKey) {
+        super(rAttrClass, retainKey);
+    }
+
+    @NonNull
+    CountingColorResolver put(@NonNull String attributeName, int color) {
+        mColors.put(attributeName, color);
+        return this;
+    }
+
+    @Nullable
+    @Override
+    public ColorStateList getColorStateListByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        mColorStateListCalls++;
+        mLastContext = context;
+        Integer color = mColors.get(attributeName);
+        return color != null ? ColorStateList.valueOf(color) : null;
+    }
+
+    @Nullable
+    @Override
+    public Integer getColorByAttrName(@NonNull Context context, @Nullable String attributeName) {
+        mColorCalls++;
+        mLastContext = context;
+        return mColors.get(attributeName);
+    }
+}
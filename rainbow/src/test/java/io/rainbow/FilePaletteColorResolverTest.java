@@ -0,0 +1,324 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class FilePaletteColorResolverTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Context mContext;
+
+    private File mPaletteFile;
+
+    private final RecordingListener mListener = new RecordingListener();
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mPaletteFile = mTemporaryFolder.newFile("palette");
+    }
+
+    @Test
+    public void constructor_doesNotReadPalette() throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\"}");
+
+        FilePaletteColorResolver resolver = new FilePaletteColorResolver(TestAttrs.class, mPaletteFile);
+
+        assertNull(resolver.getColorByAttrName(mContext, "colorPrimary"));
+        assertEquals(-1, resolver.getLastReloadDurationNanos());
+        assertTrue(resolver.reload());
+        assertEquals(Integer.valueOf(0xFF102030), resolver.getColorByAttrName(mContext, "colorPrimary"));
+    }
+
+    //region JSON
+    @Test
+    public void reload_jsonPalette_readsStringAndNumberColors() throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\", \"colorAccent\": \"red\", \"colorControlNormal\": -16777216, "
+                + "\"colorControlActivated\": 4278190335, \"ignored\": [1, 2]}");
+
+        FilePaletteColorResolver resolver = newLoadedResolver();
+
+        assertEquals(Integer.valueOf(0xFF102030), resolver.getColorByAttrName(mContext, "colorPrimary"));
+        assertEquals(Integer.valueOf(0xFFFF0000), resolver.getColorByAttrName(mContext, "colorAccent"));
+        assertEquals(Integer.valueOf(0xFF000000), resolver.getColorByAttrName(mContext, "colorControlNormal"));
+        assertEquals(Integer.valueOf(0xFF0000FF), resolver.getColorByAttrName(mContext, "colorControlActivated"));
+        assertNull(resolver.getColorByAttrName(mContext, "ignored"));
+    }
+
+    @Test
+    public void reload_jsonFractionalNumber_failsAndKeepsPreviousPalette() throws IOException {
+        assertReloadFailsAndKeepsPalette("{\"colorPrimary\": 1.5}");
+    }
+
+    @Test
+    public void reload_jsonNumberAbove32Bits_failsAndKeepsPreviousPalette() throws IOException {
+        assertReloadFailsAndKeepsPalette("{\"colorPrimary\": 8589934591}");
+    }
+
+    @Test
+    public void reload_jsonNumberBelow32Bits_failsAndKeepsPreviousPalette() throws IOException {
+        assertReloadFailsAndKeepsPalette("{\"colorPrimary\": -2147483649}");
+    }
+
+    @Test
+    public void reload_jsonEmptyColorString_failsAndKeepsPreviousPalette() throws IOException {
+        assertReloadFailsAndKeepsPalette("{\"colorPrimary\": \"\"}");
+    }
+
+    @Test
+    public void reload_jsonUnknownColorString_failsAndKeepsPreviousPalette() throws IOException {
+        assertReloadFailsAndKeepsPalette("{\"colorPrimary\": \"#12\"}");
+    }
+
+    @Test
+    public void reload_malformedJson_failsAndKeepsPreviousPalette() throws IOException {
+        assertReloadFailsAndKeepsPalette("[\"colorPrimary\"]");
+    }
+    //endregion
+
+    //region Binary
+    @Test
+    public void writeBinaryPalette_roundTripsThroughReload() throws IOException {
+        Map<String, Integer> palette = new LinkedHashMap<>();
+        palette.put("colorPrimary", 0xFF102030);
+        palette.put("colorAccent", 0x80FFFFFF);
+        palette.put("colorControlNormal", 0);
+        OutputStream out = new FileOutputStream(mPaletteFile);
+        try {
+            FilePaletteColorResolver.writeBinaryPalette(palette, out);
+        } finally {
+            out.close();
+        }
+
+        FilePaletteColorResolver resolver = newLoadedResolver();
+
+        for (Map.Entry<String, Integer> entry : palette.entrySet()) {
+            assertEquals(entry.getValue(), resolver.getColorByAttrName(mContext, entry.getKey()));
+        }
+        assertNull(resolver.getColorByAttrName(mContext, "colorControlActivated"));
+    }
+
+    @Test
+    public void reload_binaryCountTooLarge_failsWithoutAllocating() throws IOException {
+        assertReloadFailsAndKeepsPalette(binaryHeader(1, 1 << 29));
+    }
+
+    @Test
+    public void reload_binaryNegativeCount_fails() throws IOException {
+        assertReloadFailsAndKeepsPalette(binaryHeader(1, -1));
+    }
+
+    @Test
+    public void reload_binaryUnknownVersion_fails() throws IOException {
+        assertReloadFailsAndKeepsPalette(binaryHeader(2, 0));
+    }
+
+    @Test
+    public void reload_truncatedBinaryPalette_fails() throws IOException {
+        assertReloadFailsAndKeepsPalette(binaryHeader(1, 3));
+    }
+    //endregion
+
+    //region Hot reload
+    @Test
+    public void fileObserver_rewrittenFile_reloadsPalette() throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\"}");
+        FilePaletteColorResolver resolver = newLoadedResolver();
+        resolver.setOnPaletteReloadListener(mListener);
+        resolver.startWatching();
+        try {
+            writeText("{\"colorPrimary\": \"#405060\"}");
+            //the host has no inotify, deliver the event the observer would receive
+            resolver.getFileObserver().onEvent(FileObserver.CLOSE_WRITE, mPaletteFile.getName());
+        } finally {
+            resolver.stopWatching();
+        }
+
+        assertEquals(1, mListener.mReloadCount);
+        assertEquals(Integer.valueOf(0xFF405060), resolver.getColorByAttrName(mContext, "colorPrimary"));
+    }
+
+    @Test
+    public void fileObserver_fileReplacedByRename_reloadsPalette() throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\"}");
+        FilePaletteColorResolver resolver = newLoadedResolver();
+        resolver.setOnPaletteReloadListener(mListener);
+        File temporaryFile = new File(mPaletteFile.getParentFile(), "palette.tmp");
+        OutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            out.write("{\"colorPrimary\": \"#405060\"}".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        FileObserver fileObserver = resolver.getFileObserver();
+
+        //writing the temporary file and creating the palette before it has content must not reload
+        fileObserver.onEvent(FileObserver.CLOSE_WRITE, temporaryFile.getName());
+        fileObserver.onEvent(FileObserver.CREATE, mPaletteFile.getName());
+        assertEquals(0, mListener.mReloadCount);
+        assertTrue(temporaryFile.renameTo(mPaletteFile));
+        fileObserver.onEvent(FileObserver.MOVED_TO, mPaletteFile.getName());
+
+        assertEquals(1, mListener.mReloadCount);
+        assertEquals(Integer.valueOf(0xFF405060), resolver.getColorByAttrName(mContext, "colorPrimary"));
+    }
+
+    @Test
+    public void reload_isSeenByTheNextLookupById() throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\"}");
+        FilePaletteColorResolver resolver = newLoadedResolver();
+        ColorScope scope = new ColorScope(mContext);
+        assertEquals(0xFF102030, (int) resolver.getColorByAttrId(scope, TestAttrs.colorPrimary));
+
+        writeText("{\"colorPrimary\": \"#405060\"}");
+        assertTrue(resolver.reload());
+
+        assertEquals(0xFF405060, (int) resolver.getColorByAttrId(scope, TestAttrs.colorPrimary));
+    }
+
+    @Test
+    public void reload_reportsItsDuration() throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\"}");
+        FilePaletteColorResolver resolver = new FilePaletteColorResolver(TestAttrs.class, mPaletteFile);
+        resolver.setOnPaletteReloadListener(mListener);
+
+        assertTrue(resolver.reload());
+
+        assertTrue(mListener.mReloadDurationNanos >= 0);
+        assertEquals(mListener.mReloadDurationNanos, resolver.getLastReloadDurationNanos());
+        //a failed reload reports no duration and keeps the last one
+        writeText("{");
+        assertFalse(resolver.reload());
+        assertEquals(mListener.mReloadDurationNanos, resolver.getLastReloadDurationNanos());
+        assertEquals(1, mListener.mReloadCount);
+    }
+    //endregion
+
+    @NonNull
+    private FilePaletteColorResolver newLoadedResolver() {
+        FilePaletteColorResolver resolver = new FilePaletteColorResolver(TestAttrs.class, mPaletteFile);
+        assertTrue(resolver.reload());
+        return resolver;
+    }
+
+    private void assertReloadFailsAndKeepsPalette(@NonNull String malformed) throws IOException {
+        assertReloadFailsAndKeepsPalette(malformed.getBytes("UTF-8"));
+    }
+
+    private void assertReloadFailsAndKeepsPalette(@NonNull byte[] malformed) throws IOException {
+        writeText("{\"colorPrimary\": \"#102030\"}");
+        FilePaletteColorResolver resolver = newLoadedResolver();
+        resolver.setOnPaletteReloadListener(mListener);
+
+        writeBytes(malformed);
+
+        assertFalse(resolver.reload());
+        assertNotNull(mListener.mFailure);
+        assertSame(resolver, mListener.mResolver);
+        assertEquals(0, mListener.mReloadCount);
+        assertEquals(Integer.valueOf(0xFF102030), resolver.getColorByAttrName(mContext, "colorPrimary"));
+    }
+
+    @NonNull
+    private static byte[] binaryHeader(int version, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x52424F57);
+        out.writeInt(version);
+        out.writeInt(count);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeText(@NonNull String text) throws IOException {
+        writeBytes(text.getBytes("UTF-8"));
+    }
+
+    private void writeBytes(@NonNull byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(mPaletteFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class RecordingListener
+            implements FilePaletteColorResolver.OnPaletteReloadListener {
+
+        FilePaletteColorResolver mResolver;
+
+        IOException mFailure;
+
+        int mReloadCount;
+
+        long mReloadDurationNanos = -1;
+
+        @Override
+        public void onPaletteReloaded(@NonNull FilePaletteColorResolver resolver, long reloadDurationNanos) {
+            mResolver = resolver;
+            mReloadCount++;
+            mReloadDurationNanos = reloadDurationNanos;
+        }
+
+        @Override
+        public void onPaletteReloadFailed(@NonNull FilePaletteColorResolver resolver, @NonNull IOException e) {
+            mResolver = resolver;
+            mFailure = e;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link IncrementalRethemer} frame by frame through the Choreographer of a paused main looper
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class IncrementalRethemerTest {
+
+    private static final int OLD_PRIMARY = 0xFF102030;
+    private static final int NEW_PRIMARY = 0xFF405060;
+
+    /**
+     * Every frame handles a single view
+     */
+    private static final long NO_BUDGET = 0;
+
+    private CountingColorResolver mResolver;
+
+    private RainbowContextWrapper mWrapper;
+
+    private LinearLayout mRoot;
+
+    private TextView mVisible;
+
+    private TextView mHidden;
+
+    private final RecordingListener mListener = new RecordingListener();
+
+    @Before
+    public void setUp() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        mResolver = new CountingColorResolver(TestAttrs.class).put("colorPrimary", OLD_PRIMARY);
+        mWrapper = RainbowContextWrapper.from(RainbowContextWrapper.wrap(activity, mResolver));
+        mRoot = new LinearLayout(activity);
+        mRoot.setOrientation(LinearLayout.VERTICAL);
+        mVisible = new TextView(activity);
+        mRoot.addView(mVisible, new LinearLayout.LayoutParams(100, 50));
+        mHidden = new TextView(activity);
+        mHidden.setVisibility(View.GONE);
+        mRoot.addView(mHidden, new LinearLayout.LayoutParams(100, 50));
+        activity.setContentView(mRoot);
+        ShadowLooper.idleMainLooper();
+        assertTrue(mRoot.isShown() && mVisible.getWidth() > 0);
+
+        ViewColorBindings bindings = ViewColorBindings.of(android.R.attr.textColor, TestAttrs.colorPrimary);
+        mWrapper.applyColors(mVisible, bindings);
+        mWrapper.applyColors(mHidden, bindings);
+        mResolver.put("colorPrimary", NEW_PRIMARY);
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @Test
+    public void retheme_slicesWorkAcrossFramesAndThemesVisibleViewsFirst() {
+        mWrapper.retheme(mRoot, NO_BUDGET, mListener);
+        assertEquals(OLD_PRIMARY, mVisible.getCurrentTextColor());
+
+        //the root has no bindings
+        runFrame();
+        assertEquals(OLD_PRIMARY, mVisible.getCurrentTextColor());
+        assertProgress(0, 0);
+
+        runFrame();
+        assertEquals(NEW_PRIMARY, mVisible.getCurrentTextColor());
+        assertEquals(OLD_PRIMARY, mHidden.getCurrentTextColor());
+        assertProgress(1, 1);
+
+        //discovered and queued behind the walk
+        runFrame();
+        assertEquals(OLD_PRIMARY, mHidden.getCurrentTextColor());
+        assertProgress(1, 2);
+
+        runFrame();
+        assertEquals(NEW_PRIMARY, mHidden.getCurrentTextColor());
+        assertProgress(2, 2);
+        assertEquals(2, mListener.mFinishedThemedViewCount);
+        assertEquals(4, mListener.mFinishedFrameCount);
+    }
+
+    @Test
+    public void retheme_withinBudget_finishesInOneFrame() {
+        mWrapper.retheme(mRoot, Long.MAX_VALUE, mListener);
+
+        runFrame();
+
+        assertEquals(NEW_PRIMARY, mVisible.getCurrentTextColor());
+        assertEquals(NEW_PRIMARY, mHidden.getCurrentTextColor());
+        assertEquals(2, mListener.mFinishedThemedViewCount);
+        assertEquals(1, mListener.mFinishedFrameCount);
+    }
+
+    @Test
+    public void retheme_doesNotCountViewsThemedMeanwhile() {
+        mWrapper.retheme(mRoot, NO_BUDGET, mListener);
+        runFrame();
+        runFrame();
+        runFrame();
+
+        mWrapper.applyPendingColors(mHidden);
+        runFrame();
+
+        assertEquals(NEW_PRIMARY, mHidden.getCurrentTextColor());
+        assertEquals(1, mListener.mFinishedThemedViewCount);
+    }
+
+    @Test
+    public void detachingRoot_cancelsRetheme() {
+        mWrapper.retheme(mRoot, NO_BUDGET, mListener);
+        runFrame();
+
+        ((ViewGroup) mRoot.getParent()).removeView(mRoot);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(1, mListener.mProgress.size());
+        assertEquals(-1, mListener.mFinishedFrameCount);
+        assertEquals(OLD_PRIMARY, mVisible.getCurrentTextColor());
+    }
+
+    /**
+     * Run main looper tasks, i.e. traversals, until the retheme reported another frame
+     */
+    private void runFrame() {
+        int frames = mListener.mProgress.size();
+        Scheduler scheduler = Robolectric.getForegroundThreadScheduler();
+        while (mListener.mProgress.size() == frames) {
+            assertTrue("no frame scheduled", scheduler.runOneTask());
+        }
+    }
+
+    private void assertProgress(int themedViewCount, int discoveredViewCount) {
+        int[] progress = mListener.mProgress.get(mListener.mProgress.size() - 1);
+        assertEquals(themedViewCount, progress[0]);
+        assertEquals(discoveredViewCount, progress[1]);
+    }
+
+    private static final class RecordingListener
+            implements RainbowContextWrapper.OnRethemeListener {
+
+        final List<int[]> mProgress = new ArrayList<>();
+
+        int mFinishedThemedViewCount = -1;
+
+        int mFinishedFrameCount = -1;
+
+        @Override
+        public void onRethemeProgress(int themedViewCount, int discoveredViewCount) {
+            mProgress.add(new int[]{themedViewCount, discoveredViewCount});
+        }
+
+        @Override
+        public void onRethemeFinished(int themedViewCount, int frameCount) {
+            mFinishedThemedViewCount = themedViewCount;
+            mFinishedFrameCount = frameCount;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LayeredColorResolverTest {
+
+    private static final int USER_ACCENT = 0xFF000001;
+    private static final int BRAND_ACCENT = 0xFF000002;
+    private static final int BRAND_PRIMARY = 0xFF000003;
+    private static final int DEFAULT_PRIMARY = 0xFF000004;
+    private static final int DEFAULT_CONTROL_NORMAL = 0xFF000005;
+
+    private LayeredColorResolver.Layer mUser;
+
+    private LayeredColorResolver.Layer mBrand;
+
+    private LayeredColorResolver.Layer mDefaults;
+
+    private LayeredColorResolver mResolver;
+
+    private ColorScope mScope;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        mUser = new LayeredColorResolver.Layer(colors("colorAccent", USER_ACCENT));
+        mBrand = new LayeredColorResolver.Layer(colors("colorAccent", BRAND_ACCENT, "colorPrimary", BRAND_PRIMARY));
+        mDefaults = new LayeredColorResolver.Layer(colors("colorPrimary", DEFAULT_PRIMARY, "colorControlNormal", DEFAULT_CONTROL_NORMAL));
+        mResolver = new LayeredColorResolver(TestAttrs.class, Arrays.asList(mUser, mBrand, mDefaults));
+        mScope = new ColorScope(context);
+    }
+
+    @Test
+    public void lookup_returnsColorOfHighestPriorityLayer() {
+        assertEquals(USER_ACCENT, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorAccent));
+        assertEquals(BRAND_PRIMARY, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorPrimary));
+        assertEquals(DEFAULT_CONTROL_NORMAL, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorControlNormal));
+        assertEquals(RuntimeAttributeColorResolver.NO_COLOR, mResolver.getColorByAttrId(mScope, TestAttrs.colorControlActivated));
+        assertEquals(Integer.valueOf(BRAND_PRIMARY), mResolver.getColorByAttrName(RuntimeEnvironment.application, "colorPrimary"));
+    }
+
+    @Test
+    public void lookup_ofAttributeOutsideTheTable_usesOtherColors() {
+        mDefaults.put("colorControlHighlight", DEFAULT_PRIMARY);
+
+        assertEquals(DEFAULT_PRIMARY, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorControlHighlight));
+    }
+
+    @Test
+    public void layerChange_flattensOnlyChangedAttributes() {
+        int flattenCount = mResolver.getFlattenCount();
+
+        mBrand.put("colorPrimary", USER_ACCENT);
+
+        assertEquals(flattenCount + 1, mResolver.getFlattenCount());
+        assertEquals(USER_ACCENT, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorPrimary));
+        assertEquals(USER_ACCENT, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorAccent));
+        assertEquals(DEFAULT_CONTROL_NORMAL, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorControlNormal));
+    }
+
+    @Test
+    public void layerRemove_fallsBackToLowerLayer() {
+        int flattenCount = mResolver.getFlattenCount();
+
+        mUser.remove("colorAccent");
+        mUser.remove("colorAccent");
+
+        assertEquals(flattenCount + 1, mResolver.getFlattenCount());
+        assertEquals(BRAND_ACCENT, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorAccent));
+    }
+
+    @Test
+    public void layerClear_flattensItsAttributes() {
+        int flattenCount = mResolver.getFlattenCount();
+
+        mBrand.clear();
+
+        assertEquals(flattenCount + 2, mResolver.getFlattenCount());
+        assertEquals(USER_ACCENT, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorAccent));
+        assertEquals(DEFAULT_PRIMARY, (int) mResolver.getColorByAttrId(mScope, TestAttrs.colorPrimary));
+    }
+
+    @Test
+    public void unknownAttributeName_isLookedUpInLayers() {
+        mDefaults.put("notAnAttribute", DEFAULT_PRIMARY);
+
+        assertEquals(Integer.valueOf(DEFAULT_PRIMARY), mResolver.getColorByAttrName(RuntimeEnvironment.application, "notAnAttribute"));
+        assertNull(mResolver.getColorByAttrName(RuntimeEnvironment.application, "missing"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void layer_belongsToSingleResolver() {
+        new LayeredColorResolver(TestAttrs.class, Arrays.asList(mUser));
+    }
+
+    private static Map<String, Integer> colors(Object... nameColorPairs) {
+        Map<String, Integer> colors = new HashMap<>();
+        for (int i = 0; i < nameColorPairs.length; i += 2) {
+            colors.put((String) nameColorPairs[i], (Integer) nameColorPairs[i + 1]);
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.app.Activity;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class LifecycleScopedCacheTest {
+
+    private static final LifecycleScopedCache.ScopeMatcher<Object> ACTIVITY_SCOPE = new LifecycleScopedCache.ScopeMatcher<Object>() {
+        @Override
+        public boolean belongsTo(@NonNull Object key, @NonNull Activity activity) {
+            return key == activity;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        LifecycleScopedCache.registerLifecycleCallbacks(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void activityDestroyed_evictsOnlyItsEntries() {
+        LifecycleScopedCache<Object, String> cache = new LifecycleScopedCache<>("destroyed", 8, ACTIVITY_SCOPE);
+        ActivityController<Activity> destroyed = Robolectric.buildActivity(Activity.class).create();
+        ActivityController<Activity> alive = Robolectric.buildActivity(Activity.class).create();
+        cache.put(destroyed.get(), "destroyed");
+        cache.put(alive.get(), "alive");
+
+        destroyed.destroy();
+
+        assertNull(cache.get(destroyed.get()));
+        assertEquals("alive", cache.get(alive.get()));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void activitiesCreatedAndDestroyed_leaveCacheEmpty() {
+        LifecycleScopedCache<Object, String> cache = new LifecycleScopedCache<>("session", 8, ACTIVITY_SCOPE);
+
+        for (int i = 0; i < 50; i++) {
+            ActivityController<Activity> controller = Robolectric.buildActivity(Activity.class).create();
+            cache.put(controller.get(), "activity " + i);
+            controller.destroy();
+            assertEquals(0, cache.size());
+        }
+
+        assertEquals(50, cache.evictionCount());
+    }
+
+    @Test
+    public void put_beyondMaxSize_evictsLeastRecentlyUsed() {
+        LifecycleScopedCache<Object, String> cache = new LifecycleScopedCache<>("bounded", 2, ACTIVITY_SCOPE);
+        Object first = new Object();
+        Object second = new Object();
+        Object third = new Object();
+        cache.put(first, "first");
+        cache.put(second, "second");
+        cache.get(first);
+
+        cache.put(third, "third");
+
+        assertEquals("first", cache.get(first));
+        assertNull(cache.get(second));
+        assertEquals("third", cache.get(third));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void getCacheStats_reportsLiveCache() {
+        String name = "reported " + System.nanoTime();
+        LifecycleScopedCache<Object, String> cache = new LifecycleScopedCache<>(name, 2, ACTIVITY_SCOPE);
+        Object[] keys = {new Object(), new Object(), new Object()};
+        for (Object key : keys) {
+            cache.put(key, "value");
+        }
+
+        RainbowDebug.CacheStats stats = findStats(name);
+
+        assertNotNull(stats);
+        assertEquals(2, stats.size);
+        assertEquals(2, stats.maxSize);
+        assertEquals(1, stats.evictionCount);
+    }
+
+    @Nullable
+    private static RainbowDebug.CacheStats findStats(@NonNull String name) {
+        for (RainbowDebug.CacheStats stats : RainbowDebug.getCacheStats()) {
+            if (name.equals(stats.name)) {
+                return stats;
+            }
+        }
+        return null;
+    }
+}
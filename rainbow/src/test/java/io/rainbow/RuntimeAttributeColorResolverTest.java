@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class RuntimeAttributeColorResolverTest {
+
+    private static final int PRIMARY = 0xFF102030;
+    private static final int ACCENT = 0xFF203040;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void withoutRetainKey_asksResolverForEveryColorInItsContext() {
+        CountingColorResolver resolver = newResolver();
+        ColorScope scope = new ColorScope(mContext);
+
+        assertEquals(PRIMARY, (int) resolver.getColorByAttrId(scope, TestAttrs.colorPrimary));
+        assertEquals(PRIMARY, (int) resolver.getColorByAttrId(scope, TestAttrs.colorPrimary));
+
+        assertEquals(2, resolver.mColorCalls);
+        assertSame(mContext, resolver.mLastContext);
+    }
+
+    @Test
+    public void withRetainKey_sharesColorsAcrossInstances() {
+        Object retainKey = new Object();
+        CountingColorResolver first = newResolver(retainKey);
+        CountingColorResolver recreated = newResolver(retainKey);
+
+        first.getColorByAttrId(new ColorScope(mContext), TestAttrs.colorPrimary);
+        long color = recreated.getColorByAttrId(new ColorScope(mContext), TestAttrs.colorPrimary);
+
+        assertEquals(PRIMARY, (int) color);
+        assertEquals(1, first.mColorCalls);
+        assertEquals(0, recreated.mColorCalls);
+    }
+
+    @Test
+    public void withRetainKey_doesNotRetainMissingColors() {
+        CountingColorResolver resolver = newResolver(new Object());
+        ColorScope scope = new ColorScope(mContext);
+
+        assertEquals(RuntimeAttributeColorResolver.NO_COLOR, resolver.getColorByAttrId(scope, TestAttrs.colorControlNormal));
+        resolver.mColors.put("colorControlNormal", ACCENT);
+
+        assertEquals(ACCENT, (int) resolver.getColorByAttrId(scope, TestAttrs.colorControlNormal));
+        assertEquals(2, resolver.mColorCalls);
+    }
+
+    @Test
+    public void withRetainKey_resolvesAgainOnlyWhenADependencyChanges() {
+        CountingColorResolver resolver = newResolver(new Object());
+        resolver.getColorByAttrId(new ColorScope(mContext), TestAttrs.colorPrimary);
+
+        //orientation is not a default dependency
+        resolver.getColorByAttrId(new ColorScope(withConfiguration(Configuration.ORIENTATION_LANDSCAPE, Configuration.UI_MODE_NIGHT_NO)), TestAttrs.colorPrimary);
+        assertEquals(1, resolver.mColorCalls);
+
+        resolver.getColorByAttrId(new ColorScope(withConfiguration(Configuration.ORIENTATION_LANDSCAPE, Configuration.UI_MODE_NIGHT_YES)), TestAttrs.colorPrimary);
+        assertEquals(2, resolver.mColorCalls);
+
+        //both configurations stay retained
+        resolver.getColorByAttrId(new ColorScope(mContext), TestAttrs.colorPrimary);
+        assertEquals(2, resolver.mColorCalls);
+    }
+
+    @Test
+    public void invalidateAttribute_dropsOnlyThatAttribute() {
+        CountingColorResolver resolver = newResolver(new Object());
+        ColorScope scope = new ColorScope(mContext);
+        resolver.getColorByAttrId(scope, TestAttrs.colorPrimary);
+        resolver.getColorByAttrId(scope, TestAttrs.colorAccent);
+        resolver.getColorStateListByAttrId(scope, TestAttrs.colorAccent);
+        resolver.mColors.put("colorAccent", PRIMARY);
+
+        resolver.invalidate("colorAccent");
+
+        assertEquals(PRIMARY, (int) resolver.getColorByAttrId(scope, TestAttrs.colorPrimary));
+        assertEquals(PRIMARY, (int) resolver.getColorByAttrId(scope, TestAttrs.colorAccent));
+        assertEquals(PRIMARY, resolver.getColorStateListByAttrId(scope, TestAttrs.colorAccent).getDefaultColor());
+        assertEquals(3, resolver.mColorCalls);
+        assertEquals(2, resolver.mColorStateListCalls);
+    }
+
+    @Test
+    public void unknownAttribute_doesNotReachResolver() {
+        CountingColorResolver resolver = newResolver(new Object());
+
+        assertEquals(RuntimeAttributeColorResolver.NO_COLOR, resolver.getColorByAttrId(new ColorScope(mContext), 0x7f0fffff));
+        assertNull(resolver.getColorStateListByAttrId(new ColorScope(mContext), 0x7f0fffff));
+        assertEquals(0, resolver.mColorCalls);
+    }
+
+    @NonNull
+    private static CountingColorResolver newResolver() {
+        return new CountingColorResolver(TestAttrs.class)
+                .put("colorPrimary", PRIMARY)
+                .put("colorAccent", ACCENT);
+    }
+
+    @NonNull
+    private static CountingColorResolver newResolver(@NonNull Object retainKey) {
+        return new CountingColorResolver(TestAttrs.class, retainKey)
+                .put("colorPrimary", PRIMARY)
+                .put("colorAccent", ACCENT);
+    }
+
+    @NonNull
+    private Context withConfiguration(int orientation, int nightMode) {
+        Configuration configuration = new Configuration(mContext.getResources().getConfiguration());
+        configuration.orientation = orientation;
+        configuration.uiMode = (configuration.uiMode & ~Configuration.UI_MODE_NIGHT_MASK) | nightMode;
+        return mContext.createConfigurationContext(configuration);
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.widget.CompoundButtonCompat;
+import android.support.v4.widget.ImageViewCompat;
+import android.support.v7.widget.AppCompatTextView;
+import android.support.v7.widget.Toolbar;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.ContextThemeWrapper;
+import android.view.InflateException;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Inflates real layouts through {@link RainbowContextWrapper} on the host and checks both the applied colors and
+ * the cost of applying them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class RainbowInflationTest {
+
+    private static final int PRIMARY = 0xFF102030;
+    private static final int PRIMARY_DARK = 0xFF203040;
+    private static final int ACCENT = 0xFF304050;
+    private static final int CONTROL_NORMAL = 0xFF405060;
+    private static final int CONTROL_ACTIVATED = 0xFF506070;
+    /**
+     * colorPrimary of RainbowTestOverlay
+     */
+    private static final int OVERLAY_PRIMARY = 0xFF00FF00;
+
+    /**
+     * rainbow_test_all_attributes references 5 distinct color attributes, only buttonTint asks for a color state list
+     */
+    private static final int MAX_COLOR_CALLS_PER_LAYOUT = 5;
+    private static final int MAX_COLOR_STATE_LIST_CALLS_PER_LAYOUT = 1;
+
+    /**
+     * Bytes Rainbow may allocate per inflated view on top of a plain inflation
+     */
+    private static final long MAX_ALLOCATED_BYTES_PER_VIEW = 2048;
+
+    /**
+     * Views of rainbow_test_all_attributes that reference a color attribute, when inflated through a factory
+     */
+    private static final int ALL_ATTRIBUTES_THEMED_VIEW_COUNT = 9;
+
+    private static final int LIST_ITEM_VIEW_COUNT = 4;
+    private static final int LIST_ITEM_INFLATIONS = 200;
+
+    private CountingColorResolver mResolver;
+
+    /**
+     * Wrapped without any factory, views only reach Rainbow through LayoutInflater#onCreateView
+     */
+    private Context mRainbowContext;
+
+    /**
+     * Wrapped by {@link RainbowTestActivity#attachBaseContext(Context)}, its inflater has the real AppCompat factory
+     */
+    private RainbowTestActivity mActivity;
+
+    @Before
+    public void setUp() {
+        mResolver = newResolver();
+        Context themedContext = new ContextThemeWrapper(RuntimeEnvironment.application, android.support.v7.appcompat.R.style.Theme_AppCompat_Light);
+        mRainbowContext = RainbowContextWrapper.wrap(themedContext, mResolver);
+        mActivity = buildActivity(mResolver);
+    }
+
+    @After
+    public void tearDown() {
+        RainbowTestActivity.sColorResolver = null;
+    }
+
+    @Test
+    public void inflate_appliesFrameworkAttributes() {
+        View root = LayoutInflater.from(mRainbowContext).inflate(R.layout.rainbow_test_all_attributes, null);
+
+        assertFrameworkAttributes(root);
+    }
+
+    @Test
+    public void inflate_throughAppCompatDelegate_appliesAppCompatAttributes() {
+        View root = mActivity.getLayoutInflater().inflate(R.layout.rainbow_test_all_attributes, null);
+
+        assertTrue(root.findViewById(R.id.rainbow_test_text) instanceof AppCompatTextView);
+        assertFrameworkAttributes(root);
+        assertAppCompatAttributes(root);
+    }
+
+    @Test
+    public void inflate_throughNestedCloneInContext_appliesAttributes() {
+        Context nestedContext = new ContextThemeWrapper(mActivity, android.support.v7.appcompat.R.style.Theme_AppCompat);
+        LayoutInflater inflater = mActivity.getLayoutInflater()
+                .cloneInContext(nestedContext)
+                .cloneInContext(new ContextThemeWrapper(nestedContext, android.support.v7.appcompat.R.style.Theme_AppCompat_Light));
+
+        View root = inflater.inflate(R.layout.rainbow_test_all_attributes, null);
+
+        assertTrue(root.findViewById(R.id.rainbow_test_text) instanceof AppCompatTextView);
+        assertFrameworkAttributes(root);
+        assertAppCompatAttributes(root);
+        assertTrue(mResolver.mColorCalls <= MAX_COLOR_CALLS_PER_LAYOUT);
+        assertTrue(mResolver.mColorStateListCalls <= MAX_COLOR_STATE_LIST_CALLS_PER_LAYOUT);
+    }
+
+    @Test
+    public void wrap_withSameResolver_reusesExistingLayer() {
+        Context rewrapped = RainbowContextWrapper.wrap(new ContextThemeWrapper(mActivity, android.support.v7.appcompat.R.style.Theme_AppCompat_Light), mResolver);
+
+        assertSame(RainbowContextWrapper.from(mActivity), RainbowContextWrapper.from(rewrapped));
+    }
+
+    @Test
+    public void inflate_throughNestedWrappers_processesEveryViewOnce() {
+        CountingColorResolver outerResolver = new CountingColorResolver(R.attr.class, new Object()).put("colorAccent", ACCENT);
+        Context nestedContext = RainbowContextWrapper.wrap(new ContextThemeWrapper(mActivity, android.support.v7.appcompat.R.style.Theme_AppCompat_Light), outerResolver);
+        RainbowDebug.resetViewCounts();
+
+        View root = LayoutInflater.from(nestedContext).inflate(R.layout.rainbow_test_all_attributes, null);
+
+        //the AppCompat factory of the inner layer is kept
+        assertTrue(root.findViewById(R.id.rainbow_test_text) instanceof AppCompatTextView);
+        assertEquals(0, RainbowDebug.getReprocessedViewCount());
+        assertEquals(ALL_ATTRIBUTES_THEMED_VIEW_COUNT, RainbowDebug.getProcessedViewCount());
+        //colorAccent comes from the outer resolver, everything else falls back to the inner one
+        assertTrue(outerResolver.mColorCalls > 0);
+        assertFrameworkAttributes(root);
+        assertAppCompatAttributes(root);
+    }
+
+    @Test
+    public void inflate_qualifiedViewWhoseConstructorThrows_constructsItOnce() {
+        FailingView.sConstructorCalls = 0;
+
+        try {
+            mActivity.getLayoutInflater().inflate(R.layout.rainbow_test_failing_view, null);
+            fail("expected an InflateException");
+        } catch (InflateException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(1, FailingView.sConstructorCalls);
+    }
+
+    @Test
+    public void wrap_ofInflaterWithFactory_callsFactoryOncePerView() {
+        Context themedContext = new ContextThemeWrapper(RuntimeEnvironment.application, android.support.v7.appcompat.R.style.Theme_AppCompat_Light);
+        CountingFactory2 factory = new CountingFactory2();
+        LayoutInflater.from(themedContext).setFactory2(factory);
+        LayoutInflater.from(themedContext).inflate(R.layout.rainbow_test_all_attributes, null);
+        int plainCalls = factory.mCalls;
+        factory.mCalls = 0;
+
+        LayoutInflater inflater = LayoutInflater.from(RainbowContextWrapper.wrap(themedContext, mResolver));
+        inflater.inflate(R.layout.rainbow_test_all_attributes, null);
+
+        assertEquals(plainCalls, factory.mCalls);
+        //the copied factory was not installed with setFactory2, a library can still add its own
+        inflater.setFactory2(new CountingFactory2());
+    }
+
+    @Test
+    public void applyColors_toSubtreeCreatedInCode_appliesSpec() {
+        LinearLayout root = new LinearLayout(mRainbowContext);
+        TextView title = new TextView(mRainbowContext);
+        title.setId(R.id.rainbow_test_text);
+        root.addView(title);
+        for (int i = 0; i < 100; i++) {
+            root.addView(new TextView(mRainbowContext));
+        }
+        ColorBindingSpec spec = new ColorBindingSpec.Builder()
+                .bindAll(ViewColorBindings.of(android.R.attr.textColor, R.attr.colorAccent))
+                .bind(R.id.rainbow_test_text, ViewColorBindings.of(android.R.attr.textColor, R.attr.colorPrimary,
+                        android.R.attr.textColorHighlight, R.attr.colorPrimaryDark))
+                .build();
+
+        RainbowContextWrapper.from(mRainbowContext).applyColors(root, spec);
+
+        assertEquals(PRIMARY, title.getCurrentTextColor());
+        assertEquals(PRIMARY_DARK, title.getHighlightColor());
+        for (int i = 1; i < root.getChildCount(); i++) {
+            assertEquals(ACCENT, ((TextView) root.getChildAt(i)).getCurrentTextColor());
+        }
+        //the LinearLayout itself has no text color
+        assertNull(root.getBackground());
+        //one call per distinct color attribute, however many views
+        assertEquals(3, mResolver.mColorCalls);
+    }
+
+    @Test
+    public void applyColors_again_keepsAttachedBindings() {
+        LinearLayout root = new LinearLayout(mRainbowContext);
+        TextView text = new TextView(mRainbowContext);
+        root.addView(text);
+        ColorBindingSpec spec = new ColorBindingSpec.Builder()
+                .bindAll(ViewColorBindings.of(android.R.attr.textColor, R.attr.colorAccent,
+                        android.R.attr.textColorHighlight, R.attr.colorPrimaryDark))
+                .build();
+        RainbowContextWrapper rainbowContextWrapper = RainbowContextWrapper.from(mRainbowContext);
+        rainbowContextWrapper.applyColors(root, spec);
+        ViewColorBindings attached = ViewColorBindings.get(text);
+
+        rainbowContextWrapper.applyColors(root, spec);
+        rainbowContextWrapper.applyColors(text, ViewColorBindings.of(android.R.attr.textColor, R.attr.colorAccent));
+
+        assertSame(attached, ViewColorBindings.get(text));
+        assertEquals(ACCENT, text.getCurrentTextColor());
+        rainbowContextWrapper.applyColors(text, ViewColorBindings.of(android.R.attr.textColor, R.attr.colorPrimary));
+        assertEquals(PRIMARY, text.getCurrentTextColor());
+        assertNotSame(attached, ViewColorBindings.get(text));
+    }
+
+    @Test
+    public void inflate_leavesResourceReferencesAlone() {
+        View root = LayoutInflater.from(mRainbowContext).inflate(R.layout.rainbow_test_all_attributes, null);
+
+        TextView resourceColor = root.findViewById(R.id.rainbow_test_resource_color);
+        assertEquals(Color.BLACK, resourceColor.getCurrentTextColor());
+        assertNull(ViewColorBindings.get(resourceColor));
+    }
+
+    @Test
+    public void inflate_underThemeOverlay_fallsBackToTheOverlayTheme() {
+        RainbowTestActivity activity = buildActivity(new CountingColorResolver(R.attr.class, new Object()).put("colorAccent", ACCENT));
+
+        View root = activity.getLayoutInflater().inflate(R.layout.rainbow_test_theme_overlay, null);
+
+        TextView activityTheme = root.findViewById(R.id.rainbow_test_activity_theme);
+        TextView overlayTheme = root.findViewById(R.id.rainbow_test_overlay_theme);
+        assertNotNull(ViewColorBindings.get(overlayTheme));
+        assertEquals(resolveColor(activity, R.attr.colorPrimary), activityTheme.getCurrentTextColor());
+        assertEquals(OVERLAY_PRIMARY, overlayTheme.getCurrentTextColor());
+        //applying again goes through the context of the view as well
+        RainbowContextWrapper.from(activity).applyPendingColors(root);
+        RainbowContextWrapper.from(activity).applyColors(overlayTheme, ViewColorBindings.of(android.R.attr.textColor, R.attr.colorPrimary));
+        assertEquals(OVERLAY_PRIMARY, overlayTheme.getCurrentTextColor());
+    }
+
+    @Test
+    public void applyColors_ofAttributeTheResolverLacks_usesThemeColor() {
+        RainbowTestActivity activity = buildActivity(new CountingColorResolver(R.attr.class, new Object()).put("colorAccent", ACCENT));
+        TextView text = new TextView(activity);
+
+        RainbowContextWrapper.from(activity).applyColors(text, ViewColorBindings.of(android.R.attr.textColor, R.attr.colorPrimary,
+                android.R.attr.textColorHighlight, R.attr.colorAccent));
+
+        assertEquals(resolveColor(activity, R.attr.colorPrimary), text.getCurrentTextColor());
+        assertEquals(ACCENT, text.getHighlightColor());
+    }
+
+    @Test
+    public void applyPendingColors_appliesRethemeTheViewMissed() {
+        LayoutInflater inflater = LayoutInflater.from(mRainbowContext);
+        View detached = inflater.inflate(R.layout.rainbow_test_list_item, null);
+        View attached = inflater.inflate(R.layout.rainbow_test_list_item, null);
+        mResolver.mColors.put("colorPrimary", ACCENT);
+        mResolver.invalidate();
+        RainbowContextWrapper wrapper = RainbowContextWrapper.from(mRainbowContext);
+
+        wrapper.retheme(attached, null);
+        assertEquals(PRIMARY, ((ColorDrawable) detached.getBackground()).getColor());
+        wrapper.applyPendingColors(detached);
+
+        assertEquals(ACCENT, ((ColorDrawable) detached.getBackground()).getColor());
+        wrapper.cancelRetheme();
+    }
+
+    @Test
+    public void retheme_ofAnotherWrapper_leavesViewsOfThisOneUpToDate() {
+        View detached = LayoutInflater.from(mRainbowContext).inflate(R.layout.rainbow_test_list_item, null);
+        mResolver.mColors.put("colorPrimary", ACCENT);
+        mResolver.invalidate();
+        RainbowContextWrapper activityWrapper = RainbowContextWrapper.from(mActivity);
+
+        activityWrapper.retheme(mActivity.getWindow().getDecorView(), null);
+        activityWrapper.cancelRetheme();
+        RainbowContextWrapper.from(mRainbowContext).applyPendingColors(detached);
+
+        //not stale for its own wrapper, so the new color was not applied
+        assertEquals(PRIMARY, ((ColorDrawable) detached.getBackground()).getColor());
+    }
+
+    @Test
+    public void resolverCalls_stayWithinBudget() {
+        LayoutInflater inflater = LayoutInflater.from(mRainbowContext);
+
+        inflater.inflate(R.layout.rainbow_test_all_attributes, null);
+        int colorCalls = mResolver.mColorCalls;
+        int colorStateListCalls = mResolver.mColorStateListCalls;
+        assertTrue("color calls " + colorCalls, colorCalls <= MAX_COLOR_CALLS_PER_LAYOUT);
+        assertTrue("color state list calls " + colorStateListCalls, colorStateListCalls <= MAX_COLOR_STATE_LIST_CALLS_PER_LAYOUT);
+
+        //resolved colors are cached, inflating again must not reach the resolver
+        inflater.inflate(R.layout.rainbow_test_all_attributes, null);
+        inflater.inflate(R.layout.rainbow_test_list_item, null);
+        assertEquals(colorCalls, mResolver.mColorCalls);
+        assertEquals(colorStateListCalls, mResolver.mColorStateListCalls);
+    }
+
+    @Test
+    public void allocationsPerView_stayWithinBudget() {
+        com.sun.management.ThreadMXBean threadMXBean = getAllocationMXBean();
+        LayoutInflater plainInflater = buildActivity(null).getLayoutInflater();
+        LayoutInflater rainbowInflater = mActivity.getLayoutInflater();
+        //warm up class loading, constructor caches and the resolver cache
+        inflateListItems(threadMXBean, plainInflater);
+        inflateListItems(threadMXBean, rainbowInflater);
+
+        long plainBytes = inflateListItems(threadMXBean, plainInflater);
+        long rainbowBytes = inflateListItems(threadMXBean, rainbowInflater);
+
+        long overheadPerView = (rainbowBytes - plainBytes) / (LIST_ITEM_INFLATIONS * LIST_ITEM_VIEW_COUNT);
+        assertTrue("allocated bytes per view " + overheadPerView, overheadPerView <= MAX_ALLOCATED_BYTES_PER_VIEW);
+    }
+
+    /**
+     * @param colorResolver null for plain AppCompat inflation
+     */
+    @NonNull
+    private static RainbowTestActivity buildActivity(@Nullable RuntimeAttributeColorResolver colorResolver) {
+        RainbowTestActivity.sColorResolver = colorResolver;
+        try {
+            return Robolectric.buildActivity(RainbowTestActivity.class).create().get();
+        } finally {
+            RainbowTestActivity.sColorResolver = null;
+        }
+    }
+
+    private static void assertFrameworkAttributes(@NonNull View root) {
+        assertEquals(PRIMARY, ((ColorDrawable) root.getBackground()).getColor());
+
+        TextView text = root.findViewById(R.id.rainbow_test_text);
+        assertEquals(ACCENT, text.getCurrentTextColor());
+        assertEquals(PRIMARY_DARK, text.getHighlightColor());
+        assertColor(CONTROL_NORMAL, text.getCompoundDrawableTintList());
+
+        CheckBox checkBox = root.findViewById(R.id.rainbow_test_check_box);
+        assertColor(CONTROL_ACTIVATED, CompoundButtonCompat.getButtonTintList(checkBox));
+
+        ProgressBar progressBar = root.findViewById(R.id.rainbow_test_progress_bar);
+        assertColor(ACCENT, progressBar.getIndeterminateTintList());
+
+        View backgroundTint = root.findViewById(R.id.rainbow_test_background_tint);
+        assertColor(ACCENT, backgroundTint.getBackgroundTintList());
+
+        ImageView image = root.findViewById(R.id.rainbow_test_image);
+        assertColor(ACCENT, ImageViewCompat.getImageTintList(image));
+    }
+
+    /**
+     * Views referenced by their fully qualified name only reach Rainbow when a factory creates them
+     */
+    private static void assertAppCompatAttributes(@NonNull View root) {
+        CheckBox appCompatCheckBox = root.findViewById(R.id.rainbow_test_app_compat_check_box);
+        assertColor(CONTROL_ACTIVATED, CompoundButtonCompat.getButtonTintList(appCompatCheckBox));
+
+        View appCompatBackgroundTint = root.findViewById(R.id.rainbow_test_app_compat_background_tint);
+        assertColor(PRIMARY, ViewCompat.getBackgroundTintList(appCompatBackgroundTint));
+
+        Toolbar toolbar = root.findViewById(R.id.rainbow_test_toolbar);
+        toolbar.setTitle("title");
+        TextView title = null;
+        for (int i = 0; i < toolbar.getChildCount(); i++) {
+            if (toolbar.getChildAt(i) instanceof TextView) {
+                title = (TextView) toolbar.getChildAt(i);
+            }
+        }
+        assertNotNull(title);
+        assertEquals(ACCENT, title.getCurrentTextColor());
+    }
+
+    private static void assertColor(int expected, @Nullable ColorStateList actual) {
+        assertNotNull(actual);
+        assertEquals(expected, actual.getDefaultColor());
+    }
+
+    /**
+     * Referenced by rainbow_test_failing_view
+     */
+    public static final class FailingView
+            extends View {
+
+        static int sConstructorCalls;
+
+        public FailingView(Context context, AttributeSet attrs) {
+            super(context, attrs);
+            sConstructorCalls++;
+            throw new IllegalStateException("failing on purpose");
+        }
+    }
+
+    private static final class CountingFactory2
+            implements LayoutInflater.Factory2 {
+
+        int mCalls;
+
+        @Override
+        public View onCreateView(View parent, String name, Context context, AttributeSet attrs) {
+            mCalls++;
+            return null;
+        }
+
+        @Override
+        public View onCreateView(String name, Context context, AttributeSet attrs) {
+            mCalls++;
+            return null;
+        }
+    }
+
+    private static int resolveColor(@NonNull Context context, int colorAttribute) {
+        TypedValue typedValue = new TypedValue();
+        assertTrue(context.getTheme().resolveAttribute(colorAttribute, typedValue, true));
+        return typedValue.data;
+    }
+
+    @NonNull
+    private static CountingColorResolver newResolver() {
+        return new CountingColorResolver(R.attr.class, new Object())
+                .put("colorPrimary", PRIMARY)
+                .put("colorPrimaryDark", PRIMARY_DARK)
+                .put("colorAccent", ACCENT)
+                .put("colorControlNormal", CONTROL_NORMAL)
+                .put("colorControlActivated", CONTROL_ACTIVATED);
+    }
+
+    /**
+     * The budget is only meaningful if it is enforced, a JVM without per thread allocation accounting fails the test
+     */
+    @NonNull
+    private static com.sun.management.ThreadMXBean getAllocationMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assertTrue("per thread allocation accounting is not available on this JVM",
+                threadMXBean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+            allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return allocationMXBean;
+    }
+
+    /**
+     * @return bytes allocated by the current thread while inflating
+     */
+    private static long inflateListItems(@NonNull com.sun.management.ThreadMXBean threadMXBean, @NonNull LayoutInflater inflater) {
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < LIST_ITEM_INFLATIONS; i++) {
+            inflater.inflate(R.layout.rainbow_test_list_item, null);
+        }
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+}
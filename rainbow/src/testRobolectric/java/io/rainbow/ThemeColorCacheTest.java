@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Alex Fourman
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.rainbow;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.util.TypedValue;
+import android.view.ContextThemeWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ThemeColorCacheTest {
+
+    /**
+     * colorPrimary of RainbowTestOverlay
+     */
+    private static final int OVERLAY_PRIMARY = 0xFF00FF00;
+
+    private Context mContext;
+
+    private int mThemePrimary;
+
+    @Before
+    public void setUp() {
+        mContext = new ContextThemeWrapper(RuntimeEnvironment.application, android.support.v7.appcompat.R.style.Theme_AppCompat_Light);
+        TypedValue typedValue = new TypedValue();
+        assertTrue(mContext.getTheme().resolveAttribute(R.attr.colorPrimary, typedValue, true));
+        mThemePrimary = typedValue.data;
+    }
+
+    @Test
+    public void get_keepsColorsPerTheme() {
+        Resources.Theme theme = mContext.getTheme();
+        Resources.Theme otherTheme = new ContextThemeWrapper(RuntimeEnvironment.application, android.support.v7.appcompat.R.style.Theme_AppCompat_Light).getTheme();
+        Configuration configuration = mContext.getResources().getConfiguration();
+
+        ThemeColorCache.ThemeColors themeColors = ThemeColorCache.get(theme, configuration);
+
+        assertSame(themeColors, ThemeColorCache.get(theme, configuration));
+        assertNotSame(themeColors, ThemeColorCache.get(otherTheme, configuration));
+    }
+
+    @Test
+    public void get_afterConfigurationChange_resolvesAgain() {
+        Resources.Theme theme = mContext.getTheme();
+        Configuration configuration = mContext.getResources().getConfiguration();
+        Configuration night = new Configuration(configuration);
+        night.uiMode = (night.uiMode & ~Configuration.UI_MODE_NIGHT_MASK) | Configuration.UI_MODE_NIGHT_YES;
+
+        ThemeColorCache.ThemeColors themeColors = ThemeColorCache.get(theme, configuration);
+
+        assertNotSame(themeColors, ThemeColorCache.get(theme, night));
+    }
+
+    @Test
+    public void getThemeColor_ofPlainColor_isCachedUntilInvalidated() {
+        assertEquals(mThemePrimary, (int) new ColorScope(mContext).getThemeColor(R.attr.colorPrimary));
+
+        mContext.getTheme().applyStyle(R.style.RainbowTestOverlay, true);
+        assertEquals(mThemePrimary, (int) new ColorScope(mContext).getThemeColor(R.attr.colorPrimary));
+        RainbowContextWrapper.invalidateThemeColors(mContext);
+
+        assertEquals(OVERLAY_PRIMARY, (int) new ColorScope(mContext).getThemeColor(R.attr.colorPrimary));
+    }
+
+    @Test
+    public void getThemeColor_ofMissingAttributeOrColorStateList_isNoColor() {
+        ColorScope scope = new ColorScope(mContext);
+
+        //a color state list in Theme.AppCompat.Light
+        assertEquals(RuntimeAttributeColorResolver.NO_COLOR, scope.getThemeColor(R.attr.colorControlNormal));
+        assertEquals(RuntimeAttributeColorResolver.NO_COLOR, scope.getThemeColor(TestAttrs.colorControlHighlight));
+    }
+}